@@ -98,10 +98,8 @@ document.addEventListener('DOMContentLoaded', function() {
             if (!response.ok) {
                 throw new Error('Failed to update document: ' + response.status);
             }
-            return response.json();
-        })
-        .then(data => {
-            auth.displayResponse('Document Updated', data);
+            // Accepted without a body; the update is applied to the live document
+            auth.displayResponse('Document Updated', { documentId: documentId, status: response.status });
         })
         .catch(error => {
             auth.displayResponse('Error', { error: error.message });
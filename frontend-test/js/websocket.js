@@ -119,18 +119,12 @@ document.addEventListener('DOMContentLoaded', function() {
                 handleDocumentUpdate(JSON.parse(message.body));
             });
 
-            // Subscribe to user join events
-            stompClient.subscribe(`/topic/document.${currentDocumentId}.join`, function(message) {
-                const userId = message.body;
-                addActiveUser(userId);
-                auth.displayResponse('User Joined', { userId: userId });
-            });
-
-            // Subscribe to user leave events
-            stompClient.subscribe(`/topic/document.${currentDocumentId}.leave`, function(message) {
-                const userId = message.body;
-                removeActiveUser(userId);
-                auth.displayResponse('User Left', { userId: userId });
+            // Subscribe to presence changes, batched as users who joined and left since the previous message
+            stompClient.subscribe(`/topic/document.${currentDocumentId}.presence`, function(message) {
+                const presence = JSON.parse(message.body);
+                presence.joined.forEach(addActiveUser);
+                presence.left.forEach(removeActiveUser);
+                auth.displayResponse('Presence Changed', { joined: presence.joined, left: presence.left });
             });
 
             // Subscribe to active users list (sent only to this user)
@@ -144,6 +138,11 @@ document.addEventListener('DOMContentLoaded', function() {
                 handleDocumentContent(JSON.parse(message.body));
             });
 
+            // Subscribe to rejected requests (sent only to this user)
+            stompClient.subscribe(`/user/queue/document.${currentDocumentId}.rejected`, function(message) {
+                auth.displayResponse('Request Rejected', JSON.parse(message.body));
+            });
+
             // Send join message
             sendJoinMessage();
         }, function(error) {
@@ -0,0 +1,77 @@
+package com.devlab.docseditor.benchmark;
+
+import com.devlab.docseditor.utils.ContentCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing and reading cached document content: the JSON serializer of the general Redis template
+ * against the binary content codec with each compression.
+ * The {@code bytes} counter reports the size of one encoded value, the number that Redis stores and sends.
+ * Run with {@code -prof gc} to compare allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentContentCodecBenchmark {
+
+    @Param({"4096", "65536", "524288"})
+    private int documentSize;
+
+    @Param({"json", "none", "lz4", "deflate"})
+    private String format;
+
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+
+    private ContentCodec codec;
+    private String content;
+    private byte[] encoded;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        content = SampleText.prose(documentSize);
+        if (!"json".equals(format)) {
+            codec = new ContentCodec(ContentCodec.Compression.fromName(format), 4096);
+        }
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encodeContent(EncodedSize size) {
+        byte[] bytes = encode();
+        size.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Object decodeContent() {
+        return codec != null ? codec.decode(encoded) : json.deserialize(encoded);
+    }
+
+    private byte[] encode() {
+        return codec != null ? codec.encode(content) : json.serialize(content);
+    }
+}
@@ -0,0 +1,77 @@
+package com.devlab.docseditor.benchmark;
+
+import com.devlab.docseditor.engine.ot.AppliedOperation;
+import com.devlab.docseditor.engine.ot.OperationTransformer;
+import com.devlab.docseditor.engine.ot.TextOperation;
+import com.devlab.docseditor.model.session.ActiveDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the OT engine: rebasing a keystroke against concurrent keystrokes, and a single document
+ * absorbing operations from many clients that are each a few revisions behind.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationalTransformBenchmark {
+
+    @Param({"1024", "65536", "262144"})
+    private int documentSize;
+
+    @Param({"1", "16", "48"})
+    private int clients;
+
+    private final Random random = new Random(7);
+
+    private TextOperation keystroke;
+    private TextOperation concurrentKeystroke;
+
+    private ActiveDocument document;
+    private long initialRevision;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        String content = "x".repeat(documentSize);
+        keystroke = insertAt(documentSize / 3, documentSize, "a");
+        concurrentKeystroke = insertAt(documentSize / 2, documentSize, "b");
+
+        initialRevision = 0;
+        document = new ActiveDocument("benchmark", content, initialRevision, 1000);
+    }
+
+    @Benchmark
+    public TextOperation transformKeystroke() {
+        return OperationTransformer.transformAgainst(keystroke, concurrentKeystroke);
+    }
+
+    @Benchmark
+    public AppliedOperation applyConcurrentClientOperation() {
+        // Each client is up to `clients` revisions behind, as if its previous operations were still in flight
+        long revision = document.getRevision();
+        long baseRevision = Math.max(initialRevision, revision - random.nextInt(clients));
+        // Every operation inserts one character, so the length at a revision follows from the revision
+        int length = documentSize + (int) (baseRevision - initialRevision);
+        return document.applyClientOperation(baseRevision, insertAt(random.nextInt(length + 1), length, "k"));
+    }
+
+    private static TextOperation insertAt(int position, int length, String text) {
+        return new TextOperation().retain(position).insert(text).retain(length - position);
+    }
+}
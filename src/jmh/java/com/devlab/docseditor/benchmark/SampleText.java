@@ -0,0 +1,29 @@
+package com.devlab.docseditor.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic document text shared by the benchmarks.
+ */
+final class SampleText {
+
+    private static final String[] WORDS = {"the", "document", "editor", "\"quoted\"", "naïve", "operation",
+            "revision", "für", "collaborative", "text", "line\n", "cursor", "merge", "\ttab", "user", "über"};
+
+    private SampleText() {
+    }
+
+    /**
+     * Text with quotes, line breaks and non-ASCII characters, which JSON escapes, and realistic redundancy
+     * @param size the length of the text
+     * @return the text
+     */
+    static String prose(int size) {
+        Random random = new Random(11);
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.substring(0, size);
+    }
+}
@@ -0,0 +1,104 @@
+package com.devlab.docseditor.benchmark;
+
+import com.devlab.docseditor.engine.Rope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of holding live document text as an immutable {@link String}, a {@link StringBuilder} or a {@link Rope}.
+ * {@code keystroke} types a character at a random position and then deletes one, keeping the length steady;
+ * {@code keystrokeAndSnapshot} also captures the text as it is after the edit, as every revision sent to a
+ * reader or written to the database needs, which a builder can only do by copying. {@code serialize} turns
+ * the text into a string, as persisting or sending a full load does.
+ * Run with {@code -prof gc} to compare allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBufferBenchmark {
+
+    private static final int POSITIONS = 1024;
+
+    @Param({"1024", "65536", "1048576", "10485760"})
+    private int documentSize;
+
+    @Param({"string", "builder", "rope"})
+    private String buffer;
+
+    private String string;
+    private StringBuilder builder;
+    private Rope rope;
+
+    private final int[] positions = new int[POSITIONS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String text = SampleText.prose(documentSize);
+        string = text;
+        builder = new StringBuilder(text);
+        rope = Rope.of(text);
+        Random random = new Random(5);
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = random.nextInt(documentSize);
+        }
+    }
+
+    @Benchmark
+    public int keystroke() {
+        int position = positions[next++ & (POSITIONS - 1)];
+        switch (buffer) {
+            case "string":
+                string = string.substring(0, position) + 'x' + string.substring(position);
+                string = string.substring(0, position) + string.substring(position + 1);
+                return string.length();
+            case "builder":
+                builder.insert(position, 'x').deleteCharAt(position);
+                return builder.length();
+            default:
+                rope = rope.insert(position, "x").delete(position, position + 1);
+                return rope.length();
+        }
+    }
+
+    @Benchmark
+    public CharSequence keystrokeAndSnapshot() {
+        keystroke();
+        switch (buffer) {
+            case "string":
+                return string;
+            case "builder":
+                return builder.toString();
+            default:
+                return rope;
+        }
+    }
+
+    @Benchmark
+    public String serialize() {
+        switch (buffer) {
+            case "string":
+                return string;
+            case "builder":
+                return builder.toString();
+            default:
+                return rope.toString();
+        }
+    }
+}
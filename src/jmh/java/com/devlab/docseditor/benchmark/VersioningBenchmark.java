@@ -0,0 +1,92 @@
+package com.devlab.docseditor.benchmark;
+
+import com.devlab.docseditor.model.entity.CollaborativeDocument;
+import com.devlab.docseditor.model.entity.DocumentVersion;
+import com.devlab.docseditor.utils.VersioningUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the version history: creating the version of a small edit, counting changed characters, and
+ * reconstructing content from a keyframe and the deltas after it, at most one keyframe interval long in a history
+ * of {@code versionCount} versions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersioningBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    private int documentSize;
+
+    @Param({"10", "100", "1000", "100000"})
+    private int versionCount;
+
+    private final VersioningUtil versioningUtil = new VersioningUtil();
+
+    private String content;
+    private String editedContent;
+    private List<DocumentVersion> chain;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        content = SampleText.prose(documentSize);
+        editedContent = content.substring(0, documentSize / 2) + "edit " + content.substring(documentSize / 2);
+
+        Random random = new Random(3);
+        CollaborativeDocument document = document(content, 0, 0);
+        chain = new ArrayList<>();
+        String text = content;
+        int length = Math.min(versionCount, VersioningUtil.DEFAULT_KEYFRAME_INTERVAL);
+        for (int i = 0; i < length; i++) {
+            int position = random.nextInt(text.length() + 1);
+            String next = text.substring(0, position) + "word " + text.substring(position);
+            chain.add(VersioningUtil.createNewVersion(document, next, "user"));
+            document.setContent(next);
+            text = next;
+        }
+    }
+
+    @Benchmark
+    public DocumentVersion createNewVersion() {
+        // Between keyframes, so the version stores a delta
+        return VersioningUtil.createNewVersion(document(content, versionCount, versionCount), editedContent, "user");
+    }
+
+    @Benchmark
+    public int calculateChangeSize() {
+        return versioningUtil.calculateChangeSize(content, editedContent);
+    }
+
+    @Benchmark
+    public String reconstructContent() {
+        return VersioningUtil.reconstructContent(chain);
+    }
+
+    private static CollaborativeDocument document(String content, int versionCount, int lastKeyframeVersion) {
+        return CollaborativeDocument.builder()
+                .id("benchmark")
+                .content(content)
+                .versionCount(versionCount)
+                .lastKeyframeVersion(lastKeyframeVersion)
+                .build();
+    }
+}
@@ -0,0 +1,59 @@
+package com.devlab.docseditor.benchmark;
+
+import com.devlab.docseditor.model.dto.websocket.DocumentUpdateMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the JSON payload of a full document load: writing a {@link DocumentUpdateMessage} as a STOMP body,
+ * as done once per broadcast, and reading one back, as done for every message a client sends.
+ * The mapper is built with the defaults Spring Boot applies to the application's mapper.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketMessageBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    private int documentSize;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private DocumentUpdateMessage message;
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        message = new DocumentUpdateMessage("60c72b2f5e7c2a1b3c9d8e7f", SampleText.prose(documentSize),
+                "system", System.currentTimeMillis(), 42);
+        json = objectMapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public DocumentUpdateMessage deserialize() throws IOException {
+        return objectMapper.readValue(json, DocumentUpdateMessage.class);
+    }
+}
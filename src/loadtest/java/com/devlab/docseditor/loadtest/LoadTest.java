@@ -0,0 +1,269 @@
+package com.devlab.docseditor.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for a running node: finds how many concurrent editors it sustains before the p99 latency from
+ * sending an update to receiving its broadcast exceeds a limit.
+ * <p>
+ * It registers users through {@code /api/auth}, creates the documents and shares each with its editors, then
+ * runs one stage per entry of {@code --editors}. Each stage adds editors until every document has that many,
+ * lets them type for the warmup, and records the latencies of every broadcast every editor receives for the
+ * duration of the stage. A stage writes its percentile distribution to {@code stage-{editors}.hgrm} and a line
+ * to {@code summary.csv}; the run ends after the first stage whose p99 exceeds {@code --slo}.
+ * <p>
+ * Run with {@code ./mvnw -Ploadtest verify -DskipTests -Dloadtest.args="..."}; see {@link LoadTestOptions#USAGE}.
+ */
+public final class LoadTest {
+
+    private static final String PASSWORD = "load-test-password";
+    private static final int SETUP_THREADS = 16;
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    private final LoadTestOptions options;
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Recorder latencies = new Recorder(3);
+    private final SimulatedEditor.Counters counters = new SimulatedEditor.Counters();
+    private final List<SimulatedEditor> editors = new ArrayList<>();
+
+    private LoadTest(LoadTestOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (List.of(args).contains("--help")) {
+            System.out.print(LoadTestOptions.USAGE);
+            return;
+        }
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int maxEditors = options.editorsPerDocument()[options.editorsPerDocument().length - 1];
+        System.out.printf("Setting up %d documents with %d editors each on %s%n",
+                options.documents(), maxEditors, options.url());
+        List<DocumentSetup> documents = setUp(maxEditors);
+
+        Files.createDirectories(options.output());
+        Path summary = options.output().resolve("summary.csv");
+        Files.writeString(summary, "editors_per_document,editors,sent,received,errors,p50_ms,p90_ms,p99_ms,p999_ms,max_ms\n");
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(4, Runtime.getRuntime().availableProcessors()));
+        WebSocketStompClient stompClient = stompClient();
+        int[] connected = new int[documents.size()];
+        try {
+            System.out.printf("%8s %8s %9s %9s %7s %8s %8s %8s %8s %8s%n",
+                    "editors", "total", "sent", "received", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+            for (int perDocument : options.editorsPerDocument()) {
+                for (int d = 0; d < documents.size(); d++) {
+                    for (; connected[d] < perDocument; connected[d]++) {
+                        connect(stompClient, scheduler, documents.get(d), connected[d]);
+                    }
+                }
+
+                Thread.sleep(options.warmup().toMillis());
+                latencies.getIntervalHistogram();
+                long sent = counters.sent.sum();
+                long received = counters.received.sum();
+                long errors = counters.errors.sum();
+                Thread.sleep(options.duration().toMillis());
+                Histogram histogram = latencies.getIntervalHistogram();
+
+                Stage stage = new Stage(perDocument, editors.size(), counters.sent.sum() - sent,
+                        counters.received.sum() - received, counters.errors.sum() - errors, histogram);
+                report(stage, summary);
+                if (stage.p99Millis() > options.sloMillis()) {
+                    System.out.printf("p99 of %.1f ms exceeds %d ms at %d editors per document (%d in total)%n",
+                            stage.p99Millis(), options.sloMillis(), perDocument, editors.size());
+                    return;
+                }
+            }
+            System.out.printf("p99 stayed within %d ms up to %d editors per document (%d in total)%n",
+                    options.sloMillis(), maxEditors, editors.size());
+        } finally {
+            editors.forEach(SimulatedEditor::stop);
+            scheduler.shutdownNow();
+            stompClient.stop();
+        }
+    }
+
+    /**
+     * Registers the users and creates and shares the documents, several documents at a time
+     */
+    private List<DocumentSetup> setUp(int editorsPerDocument) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(SETUP_THREADS);
+        try {
+            List<CompletableFuture<DocumentSetup>> futures = new ArrayList<>();
+            for (int d = 0; d < options.documents(); d++) {
+                int document = d;
+                futures.add(CompletableFuture.supplyAsync(() -> setUpDocument(document, editorsPerDocument), executor));
+            }
+            List<DocumentSetup> documents = new ArrayList<>();
+            for (CompletableFuture<DocumentSetup> future : futures) {
+                documents.add(future.get());
+            }
+            return documents;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private DocumentSetup setUpDocument(int document, int editorsPerDocument) {
+        try {
+            List<String> tokens = new ArrayList<>();
+            String ownerToken = register("load-" + runId + "-" + document + "-0");
+            tokens.add(ownerToken);
+            String content = initialContent(new Random(options.seed() + document), options.documentSize());
+            String documentId = post("/api/documents", Map.of("title", "Load test " + document, "content", content),
+                    ownerToken).get("id").asText();
+
+            for (int e = 1; e < editorsPerDocument; e++) {
+                String token = register("load-" + runId + "-" + document + "-" + e);
+                // The API only exposes the ID of a user as the owner of a document they created
+                String userId = post("/api/documents", Map.of("title", "Load test user " + e), token)
+                        .get("ownerId").asText();
+                post("/api/documents/" + documentId + "/share", Map.of("targetUserId", userId, "role", "editor"),
+                        ownerToken);
+                tokens.add(token);
+            }
+            return new DocumentSetup(documentId, tokens);
+        } catch (IOException e) {
+            throw new IllegalStateException("Setting up document " + document + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while setting up document " + document, e);
+        }
+    }
+
+    private void connect(WebSocketStompClient stompClient, ScheduledExecutorService scheduler,
+                         DocumentSetup document, int index) throws Exception {
+        SimulatedEditor editor = new SimulatedEditor(document.documentId(), document.tokens().get(index),
+                options.keystrokeMillis(), options.seed() * 31 + editors.size(), scheduler, latencies, counters);
+        editor.connect(stompClient, options.url().resolve("/ws").toString())
+                .get(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        editor.start();
+        editors.add(editor);
+    }
+
+    private WebSocketStompClient stompClient() {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        // Whole documents travel in one frame
+        container.setDefaultMaxTextMessageBufferSize(16 * 1024 * 1024);
+        SockJsClient sockJsClient = new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient(container))));
+
+        ThreadPoolTaskScheduler heartbeats = new ThreadPoolTaskScheduler();
+        heartbeats.setPoolSize(2);
+        heartbeats.setThreadNamePrefix("stomp-heartbeat-");
+        heartbeats.initialize();
+
+        WebSocketStompClient stompClient = new WebSocketStompClient(sockJsClient);
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        stompClient.setInboundMessageSizeLimit(16 * 1024 * 1024);
+        stompClient.setTaskScheduler(heartbeats);
+        stompClient.setDefaultHeartbeat(new long[]{10_000, 10_000});
+        return stompClient;
+    }
+
+    private String register(String username) throws IOException, InterruptedException {
+        return post("/api/auth/register",
+                Map.of("username", username, "email", username + "@load.test", "password", PASSWORD), null)
+                .get("accessToken").asText();
+    }
+
+    private JsonNode post(String path, Object body, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(options.url().resolve(path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<String> response = http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("POST " + path + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return objectMapper.readTree(response.body());
+    }
+
+    private void report(Stage stage, Path summary) throws IOException {
+        Histogram histogram = stage.histogram();
+        System.out.printf("%8d %8d %9d %9d %7d %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+                stage.perDocument(), stage.editors(), stage.sent(), stage.received(), stage.errors(),
+                millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                histogram.getMaxValue() / 1000.0);
+
+        Files.writeString(summary, String.format("%d,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+                stage.perDocument(), stage.editors(), stage.sent(), stage.received(), stage.errors(),
+                millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                histogram.getMaxValue() / 1000.0), StandardOpenOption.APPEND);
+        try (PrintStream distribution = new PrintStream(
+                Files.newOutputStream(options.output().resolve("stage-" + stage.perDocument() + ".hgrm")))) {
+            // Recorded in microseconds, reported in milliseconds
+            histogram.outputPercentileDistribution(distribution, 1000.0);
+        }
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static String initialContent(Random random, int size) {
+        String[] words = {"the", "document", "editor", "shared", "text", "revision", "meeting", "notes", "line\n"};
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.substring(0, size);
+    }
+
+    private record DocumentSetup(String documentId, List<String> tokens) {
+    }
+
+    private record Stage(int perDocument, int editors, long sent, long received, long errors, Histogram histogram) {
+        double p99Millis() {
+            return millis(histogram, 99);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.devlab.docseditor.loadtest;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Settings of a load test run, parsed from {@code --name=value} arguments.
+ *
+ * @param url the base URL of the node under test
+ * @param documents the number of documents edited concurrently
+ * @param editorsPerDocument the number of editors per document in each stage, ascending
+ * @param documentSize the length of the initial content of each document
+ * @param typingSpeed the characters per minute an editor types within a burst
+ * @param warmup how long each stage runs before latencies are recorded
+ * @param duration how long latencies are recorded in each stage
+ * @param sloMillis the p99 latency in milliseconds above which the run stops
+ * @param output the directory receiving the histograms and the summary
+ * @param seed the seed of the typing streams
+ */
+record LoadTestOptions(URI url, int documents, int[] editorsPerDocument, int documentSize, int typingSpeed,
+                       Duration warmup, Duration duration, long sloMillis, Path output, long seed) {
+
+    static final String USAGE = """
+            Options:
+              --url=http://localhost:8080   node under test
+              --documents=10                documents edited concurrently
+              --editors=1,2,4,8,16          editors per document in each stage
+              --document-size=2048          characters of initial content per document
+              --typing-speed=300            characters per minute within a typing burst
+              --warmup=10                   seconds per stage before recording
+              --duration=30                 seconds recorded per stage
+              --slo=100                     p99 milliseconds that ends the run when exceeded
+              --output=target/loadtest      directory for histograms and summary.csv
+              --seed=42                     seed of the typing streams
+            """;
+
+    private static final Set<String> NAMES = Set.of("url", "documents", "editors", "document-size", "typing-speed",
+            "warmup", "duration", "slo", "output", "seed");
+
+    /**
+     * @param args the command line arguments
+     * @return the options, with defaults for those not given
+     * @throws IllegalArgumentException if an argument is unknown or malformed
+     */
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String name = arg.startsWith("--") && separator > 2 ? arg.substring(2, separator) : null;
+            if (name == null || !NAMES.contains(name)) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            values.put(name, arg.substring(separator + 1));
+        }
+        int[] editors = Arrays.stream(values.getOrDefault("editors", "1,2,4,8,16").split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .sorted()
+                .toArray();
+        if (editors.length == 0 || editors[0] < 1) {
+            throw new IllegalArgumentException("Editors per document must be positive");
+        }
+        return new LoadTestOptions(
+                URI.create(values.getOrDefault("url", "http://localhost:8080")),
+                Integer.parseInt(values.getOrDefault("documents", "10")),
+                editors,
+                Integer.parseInt(values.getOrDefault("document-size", "2048")),
+                Integer.parseInt(values.getOrDefault("typing-speed", "300")),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("warmup", "10"))),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("duration", "30"))),
+                Long.parseLong(values.getOrDefault("slo", "100")),
+                Path.of(values.getOrDefault("output", "target/loadtest")),
+                Long.parseLong(values.getOrDefault("seed", "42")));
+    }
+
+    /**
+     * @return the mean milliseconds between two keystrokes of a burst
+     */
+    long keystrokeMillis() {
+        return Math.max(1, 60_000L / typingSpeed);
+    }
+}
@@ -0,0 +1,215 @@
+package com.devlab.docseditor.loadtest;
+
+import com.devlab.docseditor.model.dto.websocket.DocumentUpdateMessage;
+import org.HdrHistogram.Recorder;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One editor of a document on its own STOMP session: it joins the document, then types in bursts of keystrokes
+ * separated by pauses, sending the whole content to {@code /app/document.update} after each keystroke.
+ * Keystrokes follow a schedule fixed in advance rather than waiting for replies, so a slow server delays the
+ * broadcasts but not the sends, and the measured latencies include the time spent queued.
+ * <p>
+ * Every update received on {@code /topic/document.{id}} records the time from its send, taken from the
+ * timestamp the sender put in the message, into the shared latency recorder. All editors run in one JVM, so
+ * the clocks agree; the resolution is one millisecond.
+ */
+final class SimulatedEditor extends StompSessionHandlerAdapter {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz    ,.\n";
+
+    private final String documentId;
+    private final String token;
+    private final long keystrokeMillis;
+    private final Random random;
+    private final ScheduledExecutorService scheduler;
+    private final Recorder latencies;
+    private final Counters counters;
+
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+    private volatile StompSession session;
+    private volatile boolean running;
+
+    /** Guarded by this instance. */
+    private String content = "";
+    private int cursor;
+    private int burstRemaining;
+    private long nextKeystrokeAt;
+    private ScheduledFuture<?> nextKeystroke;
+
+    /**
+     * Totals shared by all editors of a run.
+     */
+    static final class Counters {
+        final LongAdder sent = new LongAdder();
+        final LongAdder received = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    SimulatedEditor(String documentId, String token, long keystrokeMillis, long seed,
+                    ScheduledExecutorService scheduler, Recorder latencies, Counters counters) {
+        this.documentId = documentId;
+        this.token = token;
+        this.keystrokeMillis = keystrokeMillis;
+        this.random = new Random(seed);
+        this.scheduler = scheduler;
+        this.latencies = latencies;
+        this.counters = counters;
+    }
+
+    /**
+     * Connects, subscribes and joins the document
+     * @param client the STOMP client
+     * @param url the SockJS endpoint
+     * @return completes once the content of the document arrived
+     */
+    CompletableFuture<Void> connect(WebSocketStompClient client, String url) {
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+        client.connectAsync(url, new WebSocketHttpHeaders(), connectHeaders, this)
+                .whenComplete((connected, failure) -> {
+                    if (failure != null) {
+                        loaded.completeExceptionally(failure);
+                    }
+                });
+        return loaded;
+    }
+
+    @Override
+    public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+        this.session = session;
+        session.subscribe("/user/queue/document." + documentId + ".content", new UpdateHandler(false));
+        session.subscribe("/topic/document." + documentId, new UpdateHandler(true));
+        session.send("/app/document.join", new DocumentUpdateMessage(documentId, null, null,
+                System.currentTimeMillis(), 0));
+    }
+
+    /**
+     * Starts typing, after a random delay of up to a second so that editors do not type in lockstep
+     */
+    synchronized void start() {
+        running = true;
+        nextKeystrokeAt = System.currentTimeMillis() + random.nextInt(1000);
+        schedule();
+    }
+
+    /**
+     * Stops typing and disconnects
+     */
+    synchronized void stop() {
+        running = false;
+        if (nextKeystroke != null) {
+            nextKeystroke.cancel(false);
+        }
+        StompSession current = session;
+        if (current != null && current.isConnected()) {
+            current.disconnect();
+        }
+    }
+
+    @Override
+    public void handleException(StompSession session, StompCommand command, StompHeaders headers, byte[] payload,
+                                Throwable exception) {
+        counters.errors.increment();
+    }
+
+    @Override
+    public void handleTransportError(StompSession session, Throwable exception) {
+        counters.errors.increment();
+        loaded.completeExceptionally(exception);
+    }
+
+    private void keystroke() {
+        String typed;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            // One keystroke in ten is a backspace
+            if (cursor > 0 && random.nextInt(10) == 0) {
+                content = content.substring(0, cursor - 1) + content.substring(cursor);
+                cursor--;
+            } else {
+                content = content.substring(0, cursor) + ALPHABET.charAt(random.nextInt(ALPHABET.length()))
+                        + content.substring(cursor);
+                cursor++;
+            }
+            typed = content;
+            schedule();
+        }
+        try {
+            session.send("/app/document.update", new DocumentUpdateMessage(documentId, typed, null,
+                    System.currentTimeMillis(), 0));
+            counters.sent.increment();
+        } catch (RuntimeException e) {
+            counters.errors.increment();
+        }
+    }
+
+    /**
+     * Schedules the next keystroke of the burst, or the first one after a pause of half a second to three seconds
+     */
+    private void schedule() {
+        long delay;
+        if (burstRemaining-- > 0) {
+            delay = Math.max(1, Math.round(keystrokeMillis * (0.5 + random.nextDouble())));
+        } else {
+            burstRemaining = 5 + random.nextInt(36);
+            delay = 500 + random.nextInt(2500);
+        }
+        nextKeystrokeAt += delay;
+        nextKeystroke = scheduler.schedule(this::keystroke,
+                Math.max(0, nextKeystrokeAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void receive(DocumentUpdateMessage message) {
+        content = message.getContent() != null ? message.getContent() : "";
+        cursor = Math.min(cursor, content.length());
+    }
+
+    private final class UpdateHandler implements StompFrameHandler {
+
+        private final boolean broadcast;
+
+        UpdateHandler(boolean broadcast) {
+            this.broadcast = broadcast;
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return DocumentUpdateMessage.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            DocumentUpdateMessage message = (DocumentUpdateMessage) payload;
+            if (broadcast) {
+                latencies.recordValue(Math.max(0, System.currentTimeMillis() - message.getTimestamp()) * 1000);
+                counters.received.increment();
+                receive(message);
+            } else {
+                synchronized (SimulatedEditor.this) {
+                    receive(message);
+                    // Start typing somewhere in the text, not only at its beginning
+                    cursor = random.nextInt(content.length() + 1);
+                }
+                loaded.complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.devlab.docseditor.config;
+
+import io.micrometer.core.instrument.Counter;
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded send buffer of one WebSocket session with a policy per message class.
+ * Messages are queued without blocking the broker thread that sends them, and a sender thread writes them to
+ * the client one at a time. When the queued bytes exceed {@code bufferSizeLimit}, the oldest queued presence and
+ * cursor frames are dropped first, as newer ones supersede them. If that is not enough, or a single write takes
+ * longer than {@code sendTimeLimit} milliseconds, the session is terminated: a client missing document content
+ * has to reconnect and load the document again.
+ * <p>
+ * The time limit does not depend on later sends: every write arms a check on the watchdog scheduler that closes
+ * the session and interrupts the stalled write once the limit passes, so a client that stops reading holds a
+ * sender thread for at most {@code sendTimeLimit}. On Tomcat the container's own blocking send timeout is also
+ * set to the limit.
+ */
+@Slf4j
+public class BackpressureWebSocketSession extends WebSocketSessionDecorator {
+
+    private static final String[] DROPPABLE_SUFFIXES = {".cursors", ".presence"};
+    private static final String TOMCAT_BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final Executor sender;
+    private final TaskScheduler watchdog;
+    private final int bufferSizeLimit;
+    private final long sendTimeLimit;
+    private final Counter droppedMessages;
+    private final Counter terminatedSessions;
+
+    /** Messages waiting to be written; guarded by this instance. */
+    private final Deque<Queued> buffer = new ArrayDeque<>();
+    private int bufferSize;
+    /** Thread running the current write, or null between writes; guarded by this instance. */
+    private Thread writer;
+
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private volatile long sendStartTime;
+    private volatile boolean terminated;
+
+    private record Queued(WebSocketMessage<?> message, int size, boolean droppable) {
+    }
+
+    /**
+     * @param session the session to write to
+     * @param sender runs the writes
+     * @param watchdog runs the checks of the send time limit
+     * @param bufferSizeLimit the maximum number of bytes queued
+     * @param sendTimeLimit the maximum duration of a single write in milliseconds
+     * @param droppedMessages counts dropped presence and cursor frames
+     * @param terminatedSessions counts sessions terminated for being too slow
+     */
+    public BackpressureWebSocketSession(WebSocketSession session, Executor sender, TaskScheduler watchdog,
+                                        int bufferSizeLimit, long sendTimeLimit, Counter droppedMessages,
+                                        Counter terminatedSessions) {
+        super(session);
+        this.sender = sender;
+        this.watchdog = watchdog;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimit = sendTimeLimit;
+        this.droppedMessages = droppedMessages;
+        this.terminatedSessions = terminatedSessions;
+        if (WebSocketSessionDecorator.unwrap(session) instanceof NativeWebSocketSession nativeSession
+                && nativeSession.getNativeSession(Session.class) != null) {
+            nativeSession.getNativeSession(Session.class).getUserProperties()
+                    .put(TOMCAT_BLOCKING_SEND_TIMEOUT, sendTimeLimit);
+        }
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        if (terminated) {
+            return;
+        }
+        synchronized (this) {
+            long started = sendStartTime;
+            if (started > 0 && System.currentTimeMillis() - started > sendTimeLimit) {
+                terminate("Send time limit " + sendTimeLimit + " ms exceeded");
+            }
+            Queued queued = new Queued(message, message.getPayloadLength(), isDroppable(message));
+            buffer.addLast(queued);
+            bufferSize += queued.size();
+            if (bufferSize > bufferSizeLimit) {
+                dropOldest();
+            }
+            if (bufferSize > bufferSizeLimit) {
+                terminate("Send buffer limit " + bufferSizeLimit + " bytes exceeded");
+            }
+        }
+        if (flushing.compareAndSet(false, true)) {
+            sender.execute(this::flush);
+        }
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        synchronized (this) {
+            terminated = true;
+            buffer.clear();
+            bufferSize = 0;
+        }
+        super.close(status);
+    }
+
+    private void flush() {
+        while (true) {
+            Queued next;
+            synchronized (this) {
+                next = buffer.pollFirst();
+                if (next == null) {
+                    flushing.set(false);
+                    return;
+                }
+                bufferSize -= next.size();
+                writer = Thread.currentThread();
+                sendStartTime = System.currentTimeMillis();
+            }
+            ScheduledFuture<?> timeout = watchdog.schedule(this::enforceSendTimeLimit,
+                    Instant.now().plusMillis(sendTimeLimit));
+            try {
+                getDelegate().sendMessage(next.message());
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to send to session {}: {}", getId(), e.getMessage());
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                synchronized (this) {
+                    writer = null;
+                    sendStartTime = 0;
+                }
+                // An interrupt of a write that timed out must not leak into the next task of the pooled thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Terminates the session if the current write has run past the send time limit, interrupting the writing
+     * thread so that it returns to the sender pool
+     */
+    private void enforceSendTimeLimit() {
+        synchronized (this) {
+            long started = sendStartTime;
+            if (terminated || writer == null || started == 0 || System.currentTimeMillis() - started < sendTimeLimit) {
+                return;
+            }
+            terminated = true;
+            buffer.clear();
+            bufferSize = 0;
+            terminatedSessions.increment();
+            writer.interrupt();
+        }
+        log.warn("Terminating slow session {}: a write took longer than {} ms", getId(), sendTimeLimit);
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to close session {}: {}", getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Drops droppable messages, oldest first, until the buffer fits
+     */
+    private void dropOldest() {
+        Iterator<Queued> queued = buffer.iterator();
+        while (bufferSize > bufferSizeLimit && queued.hasNext()) {
+            Queued candidate = queued.next();
+            if (candidate.droppable()) {
+                queued.remove();
+                bufferSize -= candidate.size();
+                droppedMessages.increment();
+            }
+        }
+    }
+
+    private void terminate(String reason) {
+        terminated = true;
+        buffer.clear();
+        bufferSize = 0;
+        terminatedSessions.increment();
+        log.warn("Terminating slow session {}: {}", getId(), reason);
+        throw new SessionLimitExceededException(reason, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    /**
+     * @return true for STOMP frames to a presence or cursor topic
+     */
+    private static boolean isDroppable(WebSocketMessage<?> message) {
+        if (!(message instanceof TextMessage text)) {
+            return false;
+        }
+        String frame = text.getPayload();
+        int headersEnd = frame.indexOf("\n\n");
+        int destination = frame.indexOf("\ndestination:");
+        if (destination < 0 || (headersEnd >= 0 && destination > headersEnd)) {
+            return false;
+        }
+        int lineEnd = frame.indexOf('\n', destination + 1);
+        String value = frame.substring(destination + "\ndestination:".length(), lineEnd < 0 ? frame.length() : lineEnd);
+        for (String suffix : DROPPABLE_SUFFIXES) {
+            if (value.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,64 @@
+package com.devlab.docseditor.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.socket.config.WebSocketMessageBrokerStats;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Meters of the STOMP broker: the open WebSocket sessions and, for each message channel running on a thread pool,
+ * the messages queued for a thread and the threads busy. Channels on virtual threads do not queue and have no
+ * gauges. Meters of the other hot paths are registered by the services that own them.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder stompMetrics(ObjectProvider<WebSocketMessageBrokerStats> brokerStats,
+                                    @Qualifier("clientInboundChannelExecutor") Executor inbound,
+                                    @Qualifier("clientOutboundChannelExecutor") Executor outbound,
+                                    @Qualifier("brokerChannelExecutor") Executor broker) {
+        return registry -> {
+            Gauge.builder("websocket.sessions.active", () -> activeSessions(brokerStats))
+                    .description("Open WebSocket and SockJS sessions on this node")
+                    .register(registry);
+            monitor(registry, inbound, "inbound");
+            monitor(registry, outbound, "outbound");
+            monitor(registry, broker, "broker");
+        };
+    }
+
+    /**
+     * Registers the queue depth and busy threads of a channel executor, if it is a thread pool
+     * @param registry the registry
+     * @param executor the executor
+     * @param channel the value of the {@code channel} tag
+     */
+    static void monitor(MeterRegistry registry, Executor executor, String channel) {
+        if (!(executor instanceof ThreadPoolTaskExecutor pool)) {
+            return;
+        }
+        Gauge.builder("stomp.channel.queued", pool, ThreadPoolTaskExecutor::getQueueSize)
+                .description("Messages waiting for a thread of the channel")
+                .tag("channel", channel)
+                .register(registry);
+        Gauge.builder("stomp.channel.active", pool, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Threads of the channel handling a message")
+                .tag("channel", channel)
+                .register(registry);
+    }
+
+    private static int activeSessions(ObjectProvider<WebSocketMessageBrokerStats> brokerStats) {
+        WebSocketMessageBrokerStats stats = brokerStats.getIfAvailable();
+        SubProtocolWebSocketHandler.Stats sessions = stats != null ? stats.getWebSocketSessionStats() : null;
+        return sessions != null ? sessions.getTotalSessions() : 0;
+    }
+}
@@ -0,0 +1,53 @@
+package com.devlab.docseditor.config;
+
+import com.devlab.docseditor.model.entity.DocumentVersion;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates the indexes of the collections that are queried by range.
+ * Indexes are ensured in the background once the application is ready, so startup does not wait for MongoDB;
+ * creating an index that already exists is a no-op.
+ */
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class MongoIndexConfig {
+
+    private final MongoTemplate mongoTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        ensureIndex(new Index()
+                .on("documentId", Sort.Direction.ASC)
+                .on("versionNumber", Sort.Direction.ASC)
+                .unique()
+                .named("document_version_idx"));
+        // Looks up the version current at a time; covers the sort by timestamp and version number, so the
+        // lookup walks the index backwards from the time instead of sorting the history before it
+        ensureIndex(new Index()
+                .on("documentId", Sort.Direction.ASC)
+                .on("timestamp", Sort.Direction.ASC)
+                .on("versionNumber", Sort.Direction.ASC)
+                .named("document_version_time_number_idx"));
+    }
+
+    private void ensureIndex(Index definition) {
+        CompletableFuture.runAsync(() -> mongoTemplate.indexOps(DocumentVersion.class).ensureIndex(definition))
+                .whenComplete((index, e) -> {
+                    if (e != null) {
+                        log.error("Error creating document version index", e);
+                    } else {
+                        log.info("Ensured index {} on document_versions", index);
+                    }
+                });
+    }
+}
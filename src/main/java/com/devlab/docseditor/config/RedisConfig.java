@@ -1,14 +1,19 @@
 package com.devlab.docseditor.config;
 
+import com.devlab.docseditor.utils.ContentCodec;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Configuration
 public class RedisConfig {
@@ -25,6 +30,12 @@ public class RedisConfig {
         return new LettuceConnectionFactory(config);
     }
 
+    @Value("${application.cache.compression:lz4}")
+    private String compression;
+
+    @Value("${application.cache.compression-threshold:4096}")
+    private int compressionThreshold;
+
     @Bean
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
@@ -38,4 +49,43 @@ public class RedisConfig {
         template.afterPropertiesSet();
         return template;
     }
-}
\ No newline at end of file
+
+    /**
+     * Template for document content, stored as bytes encoded by the {@link ContentCodec} rather than as JSON
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> documentContentRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    @Bean
+    public ContentCodec contentCodec() {
+        return new ContentCodec(ContentCodec.Compression.fromName(compression), compressionThreshold);
+    }
+
+    /**
+     * Listener container for the cross-node document relay, only created when
+     * {@code application.websocket.relay} is {@code redis}.
+     * Messages are dispatched on a single thread so that each channel is handled in publish order; listeners that
+     * may block, such as forwarded requests loading their document, hand the work to an executor of their own.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "application.websocket.relay", havingValue = "redis")
+    public RedisMessageListenerContainer documentRelayListenerContainer(RedisConnectionFactory connectionFactory) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("document-relay-");
+        executor.initialize();
+
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(executor);
+        return container;
+    }
+}
@@ -2,6 +2,7 @@ package com.devlab.docseditor.config;
 
 import com.devlab.docseditor.filter.JwtAuthenticationFilter;
 import com.devlab.docseditor.service.UserService;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -35,9 +36,11 @@ public class SecurityConfig {
                 .csrf(AbstractHttpConfigurer::disable)
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()))
                 .authorizeHttpRequests(auth -> auth
+                                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll() // Streamed responses, authorized on the initial request
                                         .requestMatchers("/swagger-ui/**", "/v3/api-docs/**", "/swagger-ui.html", "/api-docs/**").permitAll()
                                         .requestMatchers("/api/auth/**").permitAll()
                                         .requestMatchers("/ws/**").permitAll() // Allow WebSocket handshake
+                                        .requestMatchers("/actuator/health").permitAll() // Probes carry no JWT; metrics need one
                                         .anyRequest().authenticated())
                 .sessionManagement(session -> session
                         .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
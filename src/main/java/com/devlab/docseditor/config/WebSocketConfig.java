@@ -1,10 +1,19 @@
 package com.devlab.docseditor.config;
 
 import com.devlab.docseditor.service.JwtService;
+import com.devlab.docseditor.service.SessionPrincipalService;
 import com.devlab.docseditor.service.UserService;
+import com.devlab.docseditor.utils.VirtualThreads;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.messaging.Message;
@@ -15,12 +24,17 @@ import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
 
 @Configuration
 @EnableWebSocketMessageBroker
@@ -31,10 +45,42 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final JwtService jwtService;
     private final UserService userService;
+    private final SessionPrincipalService sessionPrincipalService;
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    @Value("${application.websocket.heartbeat:10000}")
+    private long heartbeatMillis;
+
+    @Value("${application.websocket.outbound.buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${application.websocket.outbound.send-time-limit:10000}")
+    private int sendTimeLimit;
+
+    @Value("${application.websocket.outbound.sender-threads:8}")
+    private int senderThreads;
+
+    @Value("${application.websocket.outbound.sockjs-message-cache-size:100}")
+    private int sockJsMessageCacheSize;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    @Autowired
+    public void setMessageBrokerTaskScheduler(@Lazy TaskScheduler messageBrokerTaskScheduler) {
+        this.messageBrokerTaskScheduler = messageBrokerTaskScheduler;
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic", "/queue");
+        // Sessions that miss the client's heartbeats are closed, which ends their presence on documents
+        config.enableSimpleBroker("/topic", "/queue")
+                .setHeartbeatValue(new long[]{heartbeatMillis, heartbeatMillis})
+                .setTaskScheduler(messageBrokerTaskScheduler);
+        // Messages to a session leave in the order they were sent, whichever threads deliver them
+        config.setPreservePublishOrder(true);
 
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
@@ -42,13 +88,60 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // Frames of a session are handled in the order they arrived, whichever threads handle them
+        registry.setPreserveReceiveOrder(true);
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*")
-                .withSockJS();
+                .withSockJS()
+                .setHttpMessageCacheSize(sockJsMessageCacheSize);
+    }
+
+    /**
+     * Gives every session a bounded send buffer that drops stale presence and cursor frames and terminates
+     * clients too slow to keep up with document content
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendBufferSizeLimit(sendBufferSizeLimit);
+        registration.setSendTimeLimit(sendTimeLimit);
+
+        ThreadPoolTaskExecutor sender = new ThreadPoolTaskExecutor();
+        sender.setCorePoolSize(senderThreads);
+        sender.setMaxPoolSize(senderThreads);
+        sender.setThreadNamePrefix("websocket-send-");
+        sender.initialize();
+
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        Counter dropped = Counter.builder("websocket.outbound.dropped")
+                .description("Presence and cursor frames dropped from the send buffer of a slow session")
+                .register(registry);
+        Counter terminated = Counter.builder("websocket.outbound.terminated")
+                .description("Sessions terminated for exceeding the send buffer or time limit")
+                .register(registry);
+        MetricsConfig.monitor(registry, sender, "send");
+
+        registration.addDecoratorFactory(handler -> new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                super.afterConnectionEstablished(new BackpressureWebSocketSession(session, sender,
+                        messageBrokerTaskScheduler, sendBufferSizeLimit, sendTimeLimit, dropped, terminated));
+            }
+        });
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (VirtualThreads.isEnabled(virtualThreads)) {
+            registration.executor(VirtualThreads.perTaskExecutor("stomp-outbound-"));
+        }
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Handlers block on MongoDB and Redis; on virtual threads a slow call does not hold a pooled thread
+        if (VirtualThreads.isEnabled(virtualThreads)) {
+            registration.executor(VirtualThreads.perTaskExecutor("stomp-inbound-"));
+        }
         registration.interceptors(new ChannelInterceptor() {
             @Override
             public Message<?> preSend(Message<?> message, MessageChannel channel) {
@@ -67,23 +160,24 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                     if (authHeader != null && authHeader.startsWith("Bearer ")) {
                         String jwt = authHeader.substring(7);
                         try {
-                            String username = jwtService.extractUsername(jwt);
+                            String username = jwtService.verify(jwt).username();
 
                             if (username != null) {
-                                UserDetails userDetails = userService.loadUserByUsername(username);
-
-                                if (jwtService.isTokenValid(jwt, userDetails)) {
-                                    UsernamePasswordAuthenticationToken authentication = 
-                                        new UsernamePasswordAuthenticationToken(
-                                            userDetails, 
-                                            null, 
-                                            userDetails.getAuthorities()
-                                        );
-
-                                    SecurityContextHolder.getContext().setAuthentication(authentication);
-                                    accessor.setUser(authentication);
-                                    log.debug("WebSocket authenticated user: {}", username);
-                                }
+                                UserDetails userDetails = userService.principalFor(username);
+
+                                UsernamePasswordAuthenticationToken authentication = 
+                                    new UsernamePasswordAuthenticationToken(
+                                        userDetails, 
+                                        null, 
+                                        userDetails.getAuthorities()
+                                    );
+
+                                SecurityContextHolder.getContext().setAuthentication(authentication);
+                                accessor.setUser(authentication);
+                                // Handlers read the user from the session instead of querying it per frame
+                                sessionPrincipalService.bind(accessor.getSessionId(),
+                                        accessor.getSessionAttributes(), username);
+                                log.debug("WebSocket authenticated user: {}", username);
                             }
                         } catch (Exception e) {
                             log.error("WebSocket authentication error", e);
@@ -1,12 +1,20 @@
 package com.devlab.docseditor.controller;
 
+import com.devlab.docseditor.exception.DocumentConflictException;
 import com.devlab.docseditor.model.dto.request.CreateDocumentRequest;
 import com.devlab.docseditor.model.dto.request.ShareDocumentRequest;
 import com.devlab.docseditor.model.dto.request.UpdateDocumentRequest;
+import com.devlab.docseditor.model.dto.response.DocumentVersionPage;
+import com.devlab.docseditor.model.dto.response.DocumentVersionSummary;
+import com.devlab.docseditor.model.dto.websocket.DocumentUpdateMessage;
 import com.devlab.docseditor.model.entity.CollaborativeDocument;
 import com.devlab.docseditor.model.entity.DocumentVersion;
+import com.devlab.docseditor.model.session.SessionPrincipal;
+import com.devlab.docseditor.service.DocumentRouter;
 import com.devlab.docseditor.service.DocumentService;
 import com.devlab.docseditor.service.UserService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
@@ -17,12 +25,18 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/documents")
@@ -31,8 +45,12 @@ import java.util.List;
 @SecurityRequirement(name = "bearerAuth")
 public class DocumentController {
 
+    private static final int MAX_VERSION_PAGE_SIZE = 500;
+
     private final DocumentService documentService;
+    private final DocumentRouter documentRouter;
     private final UserService userService;
+    private final ObjectMapper objectMapper;
 
     @Operation(summary = "Create a new document", description = "Creates a new collaborative document with the current user as owner")
     @ApiResponses(value = {
@@ -82,30 +100,33 @@ public class DocumentController {
         return ResponseEntity.ok(document);
     }
 
-    @Operation(summary = "Update document content", description = "Updates the content of a document if the user has edit access")
+    @Operation(summary = "Update document content", description = "Replaces the content of a document if the user has edit access. The replacement is applied to the live document like a WebSocket update and broadcast to its editors; it is written with the next flush, or right away if nobody is editing the document")
     @ApiResponses(value = {
-        @ApiResponse(responseCode = "200", description = "Document updated successfully",
-                content = @Content(mediaType = "application/json", 
-                schema = @Schema(implementation = CollaborativeDocument.class))),
+        @ApiResponse(responseCode = "202", description = "Update accepted for the live document"),
         @ApiResponse(responseCode = "401", description = "Unauthorized"),
         @ApiResponse(responseCode = "403", description = "Forbidden - User does not have edit access"),
         @ApiResponse(responseCode = "404", description = "Document not found"),
+        @ApiResponse(responseCode = "409", description = "The node that owns the document is unavailable, retry later"),
         @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @PutMapping("/{documentId}")
-    public ResponseEntity<CollaborativeDocument> updateDocument(
+    public ResponseEntity<Void> updateDocument(
             @Parameter(description = "ID of the document to update", required = true)
             @PathVariable String documentId,
             @RequestBody UpdateDocumentRequest request,
             Authentication authentication) {
         String userName = authentication.getName();
         var userId = userService.findByUsername(userName).getId();
-        CollaborativeDocument document = documentService.updateDocument(
-                documentId,
-                request.getContent(),
-                userId
-        );
-        return ResponseEntity.ok(document);
+        documentService.getDocumentForEdit(documentId, userId);
+
+        // Written through the live document, so a flush of editors' changes cannot overwrite it. The owner of the
+        // document may apply it after this returns, so the updated document is not known here
+        DocumentUpdateMessage message = new DocumentUpdateMessage(
+                documentId, request.getContent(), userName, System.currentTimeMillis(), 0);
+        if (!documentRouter.route(DocumentRouter.Request.UPDATE, new SessionPrincipal(userId, userName), message)) {
+            throw new DocumentConflictException("Document is being edited on a node that is unavailable: " + documentId);
+        }
+        return ResponseEntity.accepted().build();
     }
 
     @Operation(summary = "Delete a document", description = "Deletes a document if the user is the owner")
@@ -188,20 +209,109 @@ public class DocumentController {
         return ResponseEntity.ok(documents);
     }
 
-    @Operation(summary = "Get document version history", description = "Retrieves the version history of a document")
+    @Operation(summary = "Get document version history",
+            description = "Retrieves a page of version metadata, newest first. Pass the returned nextCursor as 'before' to get the next page. Contents are fetched per version.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Version history retrieved successfully",
-                content = @Content(mediaType = "application/json", 
-                array = @ArraySchema(schema = @Schema(implementation = DocumentVersion.class)))),
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = DocumentVersionPage.class))),
         @ApiResponse(responseCode = "401", description = "Unauthorized"),
         @ApiResponse(responseCode = "403", description = "Forbidden - User does not have access to this document"),
         @ApiResponse(responseCode = "404", description = "Document not found"),
         @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @GetMapping("/{documentId}/versions")
-    public ResponseEntity<List<DocumentVersion>> getDocumentVersions(
+    public ResponseEntity<StreamingResponseBody> getDocumentVersions(
             @Parameter(description = "ID of the document to get version history for", required = true)
             @PathVariable String documentId,
+            @Parameter(description = "Cursor: only versions with a lower number are returned")
+            @RequestParam(required = false) Integer before,
+            @Parameter(description = "Maximum number of versions to return, at most " + MAX_VERSION_PAGE_SIZE)
+            @RequestParam(defaultValue = "50") int limit,
+            Authentication authentication) {
+        String username = authentication.getName();
+        CollaborativeDocument document = documentService.getDocumentById(documentId);
+
+        var userId = userService.findByUsername(username).getId();
+
+        if (!document.getOwnerId().equals(userId) && !document.getAccessRoles().containsKey(userId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_VERSION_PAGE_SIZE));
+
+        // Versions are written to the response as they are read from the database
+        StreamingResponseBody body = out -> {
+            try (Stream<DocumentVersionSummary> versions = documentService.streamVersionSummaries(document, before, pageSize);
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("versions");
+                int count = 0;
+                int lastVersion = 0;
+                Iterator<DocumentVersionSummary> iterator = versions.iterator();
+                while (iterator.hasNext()) {
+                    DocumentVersionSummary version = iterator.next();
+                    generator.writeObject(version);
+                    lastVersion = version.getVersionNumber();
+                    count++;
+                }
+                generator.writeEndArray();
+                if (count == pageSize && lastVersion > 1) {
+                    generator.writeNumberField("nextCursor", lastVersion);
+                } else {
+                    generator.writeNullField("nextCursor");
+                }
+                generator.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @Operation(summary = "Get the document version at a time", description = "Retrieves the version that was current at a time, including its content")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Version retrieved successfully",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = DocumentVersion.class))),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - User does not have access to this document"),
+        @ApiResponse(responseCode = "404", description = "Document not found or no version at that time"),
+        @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @GetMapping("/{documentId}/versions/at")
+    public ResponseEntity<DocumentVersion> getDocumentVersionAt(
+            @Parameter(description = "ID of the document", required = true)
+            @PathVariable String documentId,
+            @Parameter(description = "Time in ISO-8601 format, e.g. 2023-05-16T13:00:00", required = true)
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime time,
+            Authentication authentication) {
+        String username = authentication.getName();
+        CollaborativeDocument document = documentService.getDocumentById(documentId);
+
+        var userId = userService.findByUsername(username).getId();
+
+        if (!document.getOwnerId().equals(userId) && !document.getAccessRoles().containsKey(userId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        return ResponseEntity.ok(documentService.getDocumentVersionAt(document, time));
+    }
+
+    @Operation(summary = "Get a document version", description = "Retrieves a single version of a document including its content")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Version retrieved successfully",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = DocumentVersion.class))),
+        @ApiResponse(responseCode = "401", description = "Unauthorized"),
+        @ApiResponse(responseCode = "403", description = "Forbidden - User does not have access to this document"),
+        @ApiResponse(responseCode = "404", description = "Document or version not found"),
+        @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @GetMapping("/{documentId}/versions/{versionNumber}")
+    public ResponseEntity<DocumentVersion> getDocumentVersion(
+            @Parameter(description = "ID of the document", required = true)
+            @PathVariable String documentId,
+            @Parameter(description = "Number of the version", required = true)
+            @PathVariable int versionNumber,
             Authentication authentication) {
         String username = authentication.getName();
         CollaborativeDocument document = documentService.getDocumentById(documentId);
@@ -212,7 +322,6 @@ public class DocumentController {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
 
-        List<DocumentVersion> versions = documentService.getDocumentVersionHistory(documentId);
-        return ResponseEntity.ok(versions);
+        return ResponseEntity.ok(documentService.getDocumentVersion(document, versionNumber));
     }
 }
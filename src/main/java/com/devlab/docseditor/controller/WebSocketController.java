@@ -1,14 +1,23 @@
 package com.devlab.docseditor.controller;
 
+import com.devlab.docseditor.model.dto.websocket.CursorMessage;
+import com.devlab.docseditor.model.dto.websocket.DocumentOperationMessage;
 import com.devlab.docseditor.model.dto.websocket.DocumentUpdateMessage;
-import com.devlab.docseditor.service.WebSocketService;
+import com.devlab.docseditor.model.session.SessionPrincipal;
+import com.devlab.docseditor.service.AwarenessService;
+import com.devlab.docseditor.service.DocumentRouter;
+import com.devlab.docseditor.service.PresenceService;
+import com.devlab.docseditor.service.SessionPrincipalService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
 @Slf4j
 @Controller
@@ -16,15 +25,21 @@ import org.springframework.stereotype.Controller;
 @Tag(name = "WebSocket", description = "WebSocket endpoints for real-time document collaboration")
 public class WebSocketController {
 
-    private final WebSocketService webSocketService;
+    private final DocumentRouter documentRouter;
+    private final AwarenessService awarenessService;
+    private final SessionPrincipalService sessionPrincipalService;
+    private final PresenceService presenceService;
 
     @Operation(
         summary = "Load document",
         description = "Handles document load requests. Client sends this message to load a document's content."
     )
     @MessageMapping("/document.load")
-    public void handleDocumentLoad(@Payload DocumentUpdateMessage message) {
-        webSocketService.handleDocumentLoad(message);
+    public void handleDocumentLoad(@Payload DocumentUpdateMessage message, SimpMessageHeaderAccessor headerAccessor) {
+        SessionPrincipal principal = principalOf(headerAccessor);
+        if (principal != null) {
+            documentRouter.route(DocumentRouter.Request.LOAD, principal, message);
+        }
     }
 
     @Operation(
@@ -32,8 +47,24 @@ public class WebSocketController {
         description = "Handles document update messages from clients. This is sent when a user makes changes to a document."
     )
     @MessageMapping("/document.update")
-    public void handleDocumentUpdate(@Payload DocumentUpdateMessage message) {
-        webSocketService.handleDocumentUpdate(message);
+    public void handleDocumentUpdate(@Payload DocumentUpdateMessage message, SimpMessageHeaderAccessor headerAccessor) {
+        SessionPrincipal principal = principalOf(headerAccessor);
+        if (principal != null) {
+            documentRouter.route(DocumentRouter.Request.UPDATE, principal, message);
+        }
+    }
+
+    @Operation(
+        summary = "Apply document operation",
+        description = "Handles incremental edits as insert/delete/retain operations. Only the operation is broadcast to other editors."
+    )
+    @MessageMapping("/document.operation")
+    public void handleDocumentOperation(@Payload DocumentOperationMessage message,
+                                        SimpMessageHeaderAccessor headerAccessor) {
+        SessionPrincipal principal = principalOf(headerAccessor);
+        if (principal != null) {
+            documentRouter.route(principal, message);
+        }
     }
 
     @Operation(
@@ -41,8 +72,12 @@ public class WebSocketController {
         description = "Handles user join notifications. Sent when a user starts editing a document."
     )
     @MessageMapping("/document.join")
-    public void handleUserJoin(@Payload DocumentUpdateMessage message) {
-        webSocketService.handleUserJoin(message);
+    public void handleUserJoin(@Payload DocumentUpdateMessage message, SimpMessageHeaderAccessor headerAccessor) {
+        SessionPrincipal principal = principalOf(headerAccessor);
+        // Presence is kept by the node the session is connected to, the document by its owner
+        if (principal != null && presenceService.join(headerAccessor.getSessionId(), principal, message.getDocumentId())) {
+            documentRouter.route(DocumentRouter.Request.JOIN, principal, message);
+        }
     }
 
     @Operation(
@@ -50,7 +85,52 @@ public class WebSocketController {
         description = "Handles user leave notifications. Sent when a user stops editing a document."
     )
     @MessageMapping("/document.leave")
-    public void handleUserLeave(@Payload DocumentUpdateMessage message) {
-        webSocketService.handleUserLeave(message);
+    public void handleUserLeave(@Payload DocumentUpdateMessage message, SimpMessageHeaderAccessor headerAccessor) {
+        SessionPrincipal principal = principalOf(headerAccessor);
+        if (principal != null) {
+            presenceService.leave(headerAccessor.getSessionId(), principal, message.getDocumentId());
+            documentRouter.route(DocumentRouter.Request.LEAVE, principal, message);
+        }
+    }
+
+    @Operation(
+        summary = "Move cursor",
+        description = "Shares the user's cursor and selection with the other users of a document. Cursors are throttled, only the latest one per user is delivered, and nothing is stored."
+    )
+    @MessageMapping("/document.cursor")
+    public void handleCursor(@Payload CursorMessage message, SimpMessageHeaderAccessor headerAccessor) {
+        SessionPrincipal principal = principalOf(headerAccessor);
+        if (principal != null) {
+            awarenessService.moveCursor(headerAccessor.getSessionId(), principal, message);
+        }
+    }
+
+    /**
+     * Leaves the documents of a closed session, whether the client disconnected, crashed or missed its heartbeats
+     */
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        SessionPrincipal principal = sessionPrincipalService.fromSession(headerAccessor.getSessionAttributes());
+        if (principal == null) {
+            return;
+        }
+        for (String documentId : presenceService.disconnect(event.getSessionId(), principal)) {
+            DocumentUpdateMessage message = new DocumentUpdateMessage();
+            message.setDocumentId(documentId);
+            message.setTimestamp(System.currentTimeMillis());
+            documentRouter.route(DocumentRouter.Request.LEAVE, principal, message);
+        }
+    }
+
+    /**
+     * @return the user bound to the session when it connected, or null if the session is not authenticated
+     */
+    private SessionPrincipal principalOf(SimpMessageHeaderAccessor headerAccessor) {
+        SessionPrincipal principal = sessionPrincipalService.fromSession(headerAccessor.getSessionAttributes());
+        if (principal == null) {
+            log.warn("Ignoring message from unauthenticated session {}", headerAccessor.getSessionId());
+        }
+        return principal;
     }
 }
@@ -0,0 +1,54 @@
+package com.devlab.docseditor.engine;
+
+import com.devlab.docseditor.engine.ot.TextOperation;
+
+import java.util.Set;
+
+/**
+ * Replicated representation of a document's text that can be merged with replicas on other nodes
+ * without a central sequencer. Implementations are not thread-safe, callers serialize access per document.
+ */
+public interface DocumentReplica {
+
+    /**
+     * @return the visible text
+     */
+    String getText();
+
+    /**
+     * Applies an operation that was sequenced on this node
+     * @param operation the operation, based on the current visible text
+     * @return an encoded update for the other replicas, or null if nothing changed
+     */
+    byte[] applyLocal(TextOperation operation);
+
+    /**
+     * Integrates an update produced by another replica
+     * @param update the encoded update
+     * @return the resulting change of the visible text, or null if the visible text did not change
+     */
+    TextOperation applyRemote(byte[] update);
+
+    /**
+     * @return the encoded state vector, telling other replicas which operations this one has seen
+     */
+    byte[] encodeStateVector();
+
+    /**
+     * Encodes everything another replica is missing
+     * @param stateVector the encoded state vector of the other replica
+     * @return an encoded update
+     */
+    byte[] encodeUpdateSince(byte[] stateVector);
+
+    /**
+     * @return the complete encoded state, suitable for persistence
+     */
+    byte[] encodeState();
+
+    /**
+     * Forgets every other replica that is not listed; tombstones are compacted once the remaining ones saw them
+     * @param replicas the IDs of the replicas that are still live
+     */
+    void retainPeers(Set<Integer> replicas);
+}
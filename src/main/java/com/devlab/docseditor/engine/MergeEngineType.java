@@ -0,0 +1,27 @@
+package com.devlab.docseditor.engine;
+
+/**
+ * Strategy used to merge concurrent edits of a document.
+ */
+public enum MergeEngineType {
+
+    /**
+     * Operational transformation; the node holding the document sequences every operation.
+     */
+    OT,
+
+    /**
+     * Sequence CRDT; every node keeps a replica and replicas merge encoded updates in any order.
+     * Client operations are still rebased with operational transformation on the node they arrive at.
+     */
+    CRDT;
+
+    /**
+     * Parses a configured engine name, ignoring case
+     * @param name the engine name
+     * @return the engine type
+     */
+    public static MergeEngineType fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,311 @@
+package com.devlab.docseditor.engine;
+
+import java.util.Objects;
+
+/**
+ * Immutable text stored as a height-balanced tree of string chunks, so that inserting or deleting text costs
+ * O(log n) instead of copying the whole document.
+ * <p>
+ * An edit returns a new rope that shares every chunk it did not touch with the old one, which makes each
+ * version a cheap snapshot. Small edits rewrite the one chunk they fall into along a path of new branches;
+ * larger ones split the tree and join the parts again, keeping the heights of siblings within one of each other.
+ * Turning a rope into a {@link String} copies the whole text and is meant for persisting it or sending it in full.
+ */
+public final class Rope implements CharSequence {
+
+    /** Length of the chunks text is cut into. */
+    static final int CHUNK_SIZE = 1024;
+
+    /** Length up to which edits grow a chunk in place and adjacent chunks are merged. */
+    static final int MAX_CHUNK_SIZE = 2 * CHUNK_SIZE;
+
+    private static final Leaf EMPTY_LEAF = new Leaf("");
+    private static final Rope EMPTY = new Rope(EMPTY_LEAF);
+
+    private final Node root;
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @return the empty rope
+     */
+    public static Rope empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a balanced rope of a text
+     * @param text the text, may be null for the empty rope
+     * @return the rope
+     */
+    public static Rope of(String text) {
+        return text == null || text.isEmpty() ? EMPTY : new Rope(build(text));
+    }
+
+    @Override
+    public int length() {
+        return root.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        Objects.checkIndex(index, length());
+        Node node = root;
+        while (node instanceof Branch branch) {
+            int leftLength = branch.left().length();
+            if (index < leftLength) {
+                node = branch.left();
+            } else {
+                index -= leftLength;
+                node = branch.right();
+            }
+        }
+        return ((Leaf) node).text().charAt(index);
+    }
+
+    @Override
+    public Rope subSequence(int start, int end) {
+        Objects.checkFromToIndex(start, end, length());
+        return new Rope(split(split(root, end)[0], start)[1]);
+    }
+
+    /**
+     * Inserts text
+     * @param index the position to insert at
+     * @param text the text to insert
+     * @return the new rope
+     * @throws IndexOutOfBoundsException if the index is outside the text
+     */
+    public Rope insert(int index, String text) {
+        return replace(index, index, text);
+    }
+
+    /**
+     * Deletes a range of text
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, exclusive
+     * @return the new rope
+     * @throws IndexOutOfBoundsException if the range is outside the text
+     */
+    public Rope delete(int start, int end) {
+        return replace(start, end, "");
+    }
+
+    /**
+     * Replaces a range of text
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, exclusive
+     * @param text the replacement, may be null for a plain delete
+     * @return the new rope
+     * @throws IndexOutOfBoundsException if the range is outside the text
+     */
+    public Rope replace(int start, int end, String text) {
+        Objects.checkFromToIndex(start, end, length());
+        String replacement = text != null ? text : "";
+        if (start == end && replacement.isEmpty()) {
+            return this;
+        }
+        Node edited = editChunk(root, start, end, replacement);
+        if (edited != null) {
+            return new Rope(edited);
+        }
+        Node[] head = split(root, start);
+        Node tail = split(head[1], end - start)[1];
+        Node joined = join(join(head[0], replacement.isEmpty() ? EMPTY_LEAF : build(replacement)), tail);
+        return joined.length() == 0 ? EMPTY : new Rope(joined);
+    }
+
+    /**
+     * @return the whole text, copied into one string
+     */
+    @Override
+    public String toString() {
+        if (root instanceof Leaf leaf) {
+            return leaf.text();
+        }
+        StringBuilder text = new StringBuilder(length());
+        appendTo(root, text);
+        return text.toString();
+    }
+
+    /**
+     * @return the height of the tree, 0 for a single chunk
+     */
+    int height() {
+        return root.height();
+    }
+
+    private static void appendTo(Node node, StringBuilder text) {
+        if (node instanceof Branch branch) {
+            appendTo(branch.left(), text);
+            appendTo(branch.right(), text);
+        } else {
+            text.append(((Leaf) node).text());
+        }
+    }
+
+    /**
+     * Builds a perfectly balanced tree of chunks
+     */
+    private static Node build(String text) {
+        return build(text, 0, (text.length() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private static Node build(String text, int fromChunk, int toChunk) {
+        if (toChunk - fromChunk == 1) {
+            return new Leaf(text.substring(fromChunk * CHUNK_SIZE, Math.min(text.length(), toChunk * CHUNK_SIZE)));
+        }
+        int middle = (fromChunk + toChunk) >>> 1;
+        return new Branch(build(text, fromChunk, middle), build(text, middle, toChunk));
+    }
+
+    /**
+     * Replaces a range lying within a single chunk by copying that chunk and the branches above it
+     * @return the new tree, or null if the range spans chunks or the chunk would become empty or too long
+     */
+    private static Node editChunk(Node node, int start, int end, String text) {
+        if (node instanceof Leaf leaf) {
+            int length = leaf.length() - (end - start) + text.length();
+            if (length == 0 || length > MAX_CHUNK_SIZE) {
+                return null;
+            }
+            return new Leaf(leaf.text().substring(0, start) + text + leaf.text().substring(end));
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left().length();
+        if (end <= leftLength) {
+            Node left = editChunk(branch.left(), start, end, text);
+            if (left != null) {
+                return new Branch(left, branch.right());
+            }
+            if (start < leftLength) {
+                return null;
+            }
+            // An insert between the two children may still fit into the right one
+        }
+        if (start >= leftLength) {
+            Node right = editChunk(branch.right(), start - leftLength, end - leftLength, text);
+            return right != null ? new Branch(branch.left(), right) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Splits a tree into the text before an index and the text from it on
+     * @return the two trees, either may be the empty leaf
+     */
+    private static Node[] split(Node node, int index) {
+        if (index == 0) {
+            return new Node[]{EMPTY_LEAF, node};
+        }
+        if (index == node.length()) {
+            return new Node[]{node, EMPTY_LEAF};
+        }
+        if (node instanceof Leaf leaf) {
+            return new Node[]{new Leaf(leaf.text().substring(0, index)), new Leaf(leaf.text().substring(index))};
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left().length();
+        if (index <= leftLength) {
+            Node[] parts = split(branch.left(), index);
+            return new Node[]{parts[0], join(parts[1], branch.right())};
+        }
+        Node[] parts = split(branch.right(), index - leftLength);
+        return new Node[]{join(branch.left(), parts[0]), parts[1]};
+    }
+
+    /**
+     * Concatenates two balanced trees into a balanced tree, in time proportional to the difference of their heights
+     */
+    private static Node join(Node left, Node right) {
+        if (left.length() == 0) {
+            return right;
+        }
+        if (right.length() == 0) {
+            return left;
+        }
+        if (left instanceof Leaf l && right instanceof Leaf r && l.length() + r.length() <= MAX_CHUNK_SIZE) {
+            return new Leaf(l.text() + r.text());
+        }
+        int difference = left.height() - right.height();
+        if (difference > 1) {
+            return joinRight((Branch) left, right);
+        }
+        if (difference < -1) {
+            return joinLeft(left, (Branch) right);
+        }
+        return new Branch(left, right);
+    }
+
+    /**
+     * Attaches a lower tree along the right spine of a higher one, rotating where the heights drift apart
+     */
+    private static Node joinRight(Branch left, Node right) {
+        Node outer = left.left();
+        Node inner = left.right();
+        if (inner.height() <= right.height() + 1) {
+            Branch joined = new Branch(inner, right);
+            if (joined.height() <= outer.height() + 1) {
+                return new Branch(outer, joined);
+            }
+            return rotateLeft(new Branch(outer, rotateRight(joined)));
+        }
+        Node joined = joinRight((Branch) inner, right);
+        Branch result = new Branch(outer, joined);
+        return joined.height() <= outer.height() + 1 ? result : rotateLeft(result);
+    }
+
+    /**
+     * Attaches a lower tree along the left spine of a higher one, rotating where the heights drift apart
+     */
+    private static Node joinLeft(Node left, Branch right) {
+        Node inner = right.left();
+        Node outer = right.right();
+        if (inner.height() <= left.height() + 1) {
+            Branch joined = new Branch(left, inner);
+            if (joined.height() <= outer.height() + 1) {
+                return new Branch(joined, outer);
+            }
+            return rotateRight(new Branch(rotateLeft(joined), outer));
+        }
+        Node joined = joinLeft(left, (Branch) inner);
+        Branch result = new Branch(joined, outer);
+        return joined.height() <= outer.height() + 1 ? result : rotateRight(result);
+    }
+
+    private static Branch rotateLeft(Branch node) {
+        Branch right = (Branch) node.right();
+        return new Branch(new Branch(node.left(), right.left()), right.right());
+    }
+
+    private static Branch rotateRight(Branch node) {
+        Branch left = (Branch) node.left();
+        return new Branch(left.left(), new Branch(left.right(), node.right()));
+    }
+
+    private sealed interface Node permits Leaf, Branch {
+        int length();
+
+        int height();
+    }
+
+    private record Leaf(String text) implements Node {
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public int height() {
+            return 0;
+        }
+    }
+
+    private record Branch(Node left, Node right, int length, int height) implements Node {
+        Branch(Node left, Node right) {
+            this(left, right, left.length() + right.length(), Math.max(left.height(), right.height()) + 1);
+        }
+    }
+}
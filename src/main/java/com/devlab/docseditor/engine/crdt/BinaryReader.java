@@ -0,0 +1,49 @@
+package com.devlab.docseditor.engine.crdt;
+
+/**
+ * Reader for buffers written by {@link BinaryWriter}.
+ */
+final class BinaryReader {
+
+    private final byte[] buffer;
+    private int position;
+
+    BinaryReader(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("Unexpected end of CRDT update");
+            }
+            byte current = buffer[position++];
+            value |= (current & 0x7F) << shift;
+            if ((current & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IllegalArgumentException("Malformed varint in CRDT update");
+            }
+        }
+    }
+
+    char[] readChars() {
+        int length = readVarInt();
+        if (length < 0 || length > buffer.length - position) {
+            throw new IllegalArgumentException("Unexpected end of CRDT update");
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) readVarInt();
+        }
+        return chars;
+    }
+
+    boolean hasRemaining() {
+        return position < buffer.length;
+    }
+}
@@ -0,0 +1,49 @@
+package com.devlab.docseditor.engine.crdt;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with unsigned LEB128 varints, used for the compact CRDT encodings.
+ */
+final class BinaryWriter {
+
+    private byte[] buffer;
+    private int position;
+
+    BinaryWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    void writeVarInt(int value) {
+        ensureCapacity(5);
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        buffer[position++] = (byte) remaining;
+    }
+
+    void writeChars(char[] source, int offset, int length) {
+        writeVarInt(length);
+        ensureCapacity(length);
+        for (int i = offset; i < offset + length; i++) {
+            // Characters are written one by one so that runs may split surrogate pairs safely
+            writeVarInt(source[i]);
+        }
+    }
+
+    int position() {
+        return position;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (position + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+        }
+    }
+}
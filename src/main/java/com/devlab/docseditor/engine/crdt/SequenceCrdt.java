@@ -0,0 +1,919 @@
+package com.devlab.docseditor.engine.crdt;
+
+import com.devlab.docseditor.engine.DocumentReplica;
+import com.devlab.docseditor.engine.ot.OperationTransformer;
+import com.devlab.docseditor.engine.ot.TextOperation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RGA-style sequence CRDT over the characters of a document.
+ * <p>
+ * Every character is an item with a unique ID made of the replica ID and a Lamport clock, plus the ID of
+ * the item it was inserted after (its origin). Concurrent inserts after the same origin are ordered by
+ * descending ID, so all replicas converge no matter in which order they integrate updates.
+ * Items are kept in document order in blocks of parallel primitive arrays; IDs are packed into longs as
+ * {@code clock << 32 | client} so comparing the longs compares the Lamport timestamps. Each block counts
+ * its visible items and an index maps every item ID to its block, so integrating a remote edit scans one
+ * block and the per-block counts instead of the whole document.
+ * <p>
+ * Deleted items stay as tombstones until every known replica has seen the whole document state.
+ * After that no future insert can be placed relative to a tombstone, so they are compacted away and
+ * memory stays proportional to the live text.
+ * <p>
+ * Updates of one replica must be delivered in the order they were produced, which the STOMP session
+ * and the broker channels guarantee; updates of different replicas may arrive in any order.
+ * Not thread-safe, callers serialize access per document.
+ */
+public class SequenceCrdt implements DocumentReplica {
+
+    /** Replica ID of items created from a plain-text snapshot; the same text yields the same items everywhere. */
+    static final int ROOT_CLIENT = 0;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int FLAG_UPDATE = 0;
+    private static final int FLAG_FULL_STATE = 1;
+    private static final int GC_MIN_TOMBSTONES = 1024;
+    /** Items per block; a full block is split in two before an insert. */
+    private static final int BLOCK_CAPACITY = 512;
+
+    private final int client;
+    private int clock;
+    private final StateVector stateVector = new StateVector();
+    private final Map<Integer, StateVector> peerVectors = new HashMap<>();
+    /** Everything before this horizon may have been compacted; older replicas need the full state. */
+    private StateVector gcHorizon = new StateVector();
+
+    /** Items in document order; never empty, an empty document has one empty block. */
+    private List<Block> blocks = new ArrayList<>();
+    private ItemLocations locations = new ItemLocations();
+    private int size;
+    private int tombstones;
+
+    private final List<InsertRun> pendingInserts = new ArrayList<>();
+    private final List<DeleteRun> pendingDeletes = new ArrayList<>();
+
+    private SequenceCrdt(int client) {
+        if (client <= ROOT_CLIENT) {
+            throw new IllegalArgumentException("Replica ID must be positive: " + client);
+        }
+        this.client = client;
+        blocks.add(new Block(0));
+    }
+
+    /**
+     * Creates a replica from plain text. Replicas created from the same text share the same item IDs.
+     * @param client the ID of this replica, unique among all replicas
+     * @param text the initial text
+     * @return the replica
+     */
+    public static SequenceCrdt fromText(int client, String text) {
+        String initial = text != null ? text : "";
+        SequenceCrdt crdt = new SequenceCrdt(client);
+        long previous = 0;
+        for (int i = 0; i < initial.length(); i++) {
+            long id = packId(ROOT_CLIENT, i + 1);
+            crdt.appendItem(id, previous, initial.charAt(i));
+            previous = id;
+        }
+        if (crdt.size > 0) {
+            crdt.stateVector.observe(ROOT_CLIENT, crdt.size);
+        }
+        crdt.clock = crdt.size;
+        return crdt;
+    }
+
+    /**
+     * Restores a replica from a state produced by {@link #encodeState()}
+     * @param client the ID of this replica, unique among all replicas
+     * @param state the encoded state
+     * @return the replica
+     */
+    public static SequenceCrdt decode(int client, byte[] state) {
+        BinaryReader reader = new BinaryReader(state);
+        readHeader(reader);
+        reader.readVarInt(); // sender
+        StateVector vector = StateVector.read(reader);
+        StateVector horizon = StateVector.read(reader);
+
+        SequenceCrdt crdt = new SequenceCrdt(client);
+        // A full state lists items in document order, so they are appended without integration
+        int runs = reader.readVarInt();
+        for (int r = 0; r < runs; r++) {
+            InsertRun run = InsertRun.read(reader);
+            long origin = run.origin;
+            for (int k = 0; k < run.text.length; k++) {
+                long id = packId(run.client, run.startClock + k);
+                crdt.appendItem(id, origin, run.text[k]);
+                origin = id;
+            }
+        }
+        int deleteRuns = reader.readVarInt();
+        for (int r = 0; r < deleteRuns; r++) {
+            DeleteRun run = DeleteRun.read(reader);
+            for (int k = 0; k < run.length; k++) {
+                Cursor item = crdt.find(packId(run.client, run.startClock + k));
+                if (item != null && item.block.deletions[item.offset] == 0) {
+                    crdt.delete(item, run.stamp);
+                }
+            }
+        }
+        crdt.stateVector.merge(vector);
+        crdt.clock = Math.max(crdt.clock, vector.maxClock());
+        crdt.gcHorizon = horizon;
+        return crdt;
+    }
+
+    public int getClient() {
+        return client;
+    }
+
+    /**
+     * @return the number of visible characters
+     */
+    public int length() {
+        return size - tombstones;
+    }
+
+    /**
+     * @return the number of deleted items still kept in memory
+     */
+    public int getTombstoneCount() {
+        return tombstones;
+    }
+
+    @Override
+    public String getText() {
+        StringBuilder text = new StringBuilder(length());
+        for (Block block : blocks) {
+            for (int i = 0; i < block.size; i++) {
+                if (block.deletions[i] == 0) {
+                    text.append(block.chars[i]);
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    @Override
+    public byte[] applyLocal(TextOperation operation) {
+        if (operation.getBaseLength() != length()) {
+            throw new IllegalArgumentException("Operation base length " + operation.getBaseLength()
+                    + " does not match replica length " + length());
+        }
+        if (operation.isNoop()) {
+            return null;
+        }
+
+        List<InsertRun> inserts = new ArrayList<>();
+        List<DeleteRun> deletes = new ArrayList<>();
+        long stamp = 0;
+        Cursor cursor = new Cursor(blocks.get(0), 0);
+
+        for (int c = 0; c < operation.size(); c++) {
+            int length = operation.length(c);
+            if (operation.isRetain(c)) {
+                skipVisible(cursor, length);
+            } else if (operation.isInsert(c)) {
+                // Insert right after the nearest visible item so that the origin is never a tombstone
+                skipTombstonesBackward(cursor);
+                long origin = cursor.offset > 0 ? cursor.block.ids[cursor.offset - 1] : 0;
+                String text = operation.insertedText(c);
+                int startClock = clock + 1;
+                long previous = origin;
+                for (int k = 0; k < text.length(); k++) {
+                    long id = packId(client, ++clock);
+                    insertItem(cursor, id, previous, text.charAt(k));
+                    previous = id;
+                }
+                inserts.add(new InsertRun(client, startClock, origin, text.toCharArray()));
+            } else {
+                if (stamp == 0) {
+                    stamp = packId(client, ++clock);
+                }
+                int remaining = length;
+                while (remaining > 0) {
+                    if (cursor.offset == cursor.block.size) {
+                        cursor.moveTo(blocks.get(cursor.block.ordinal + 1), 0);
+                        continue;
+                    }
+                    if (cursor.block.deletions[cursor.offset] == 0) {
+                        delete(cursor, stamp);
+                        remaining--;
+                        appendDeleteRun(deletes, cursor.block.ids[cursor.offset], stamp);
+                    }
+                    cursor.offset++;
+                }
+            }
+        }
+        stateVector.observe(client, clock);
+
+        byte[] update = encode(FLAG_UPDATE, inserts, deletes);
+        collectGarbageIfNeeded();
+        return update;
+    }
+
+    @Override
+    public TextOperation applyRemote(byte[] update) {
+        BinaryReader reader = new BinaryReader(update);
+        int flag = readHeader(reader);
+        int sender = reader.readVarInt();
+        StateVector senderVector = StateVector.read(reader);
+        StateVector senderHorizon = StateVector.read(reader);
+
+        ChangeBuilder change = new ChangeBuilder(length());
+        if (flag == FLAG_FULL_STATE && !stateVector.covers(senderHorizon)) {
+            // The sender compacted deletes we have never seen, so its state cannot be merged item by item.
+            // Adopt it; edits of this replica the sender has not seen yet are lost, which GC only allows
+            // for replicas that were unknown to the sender when it compacted.
+            SequenceCrdt adopted = decode(client, update);
+            TextOperation replacement = TextOperation.diff(getText(), adopted.getText());
+            adoptState(adopted);
+            recordPeer(sender, senderVector);
+            return replacement.isNoop() ? null : replacement;
+        }
+
+        int runs = reader.readVarInt();
+        for (int r = 0; r < runs; r++) {
+            integrateInsert(InsertRun.read(reader), change);
+        }
+        int deleteRuns = reader.readVarInt();
+        for (int r = 0; r < deleteRuns; r++) {
+            integrateDelete(DeleteRun.read(reader), change);
+        }
+        integratePending(change);
+        recordPeer(sender, senderVector);
+        collectGarbageIfNeeded();
+
+        TextOperation result = change.build();
+        return result.isNoop() ? null : result;
+    }
+
+    @Override
+    public byte[] encodeStateVector() {
+        return stateVector.encode();
+    }
+
+    @Override
+    public byte[] encodeUpdateSince(byte[] encodedStateVector) {
+        StateVector since = StateVector.decode(encodedStateVector);
+        if (!since.covers(gcHorizon)) {
+            return encodeState();
+        }
+        return encodeItems(FLAG_UPDATE, since);
+    }
+
+    @Override
+    public byte[] encodeState() {
+        return encodeItems(FLAG_FULL_STATE, new StateVector());
+    }
+
+    /**
+     * Forgets a replica that left, so it no longer holds back garbage collection
+     * @param peer the replica ID
+     */
+    public void forgetPeer(int peer) {
+        peerVectors.remove(peer);
+    }
+
+    @Override
+    public void retainPeers(Set<Integer> replicas) {
+        if (peerVectors.keySet().retainAll(replicas)) {
+            collectGarbageIfNeeded();
+        }
+    }
+
+    /**
+     * Compacts tombstones if every known replica has seen the whole state of this one
+     * @return the number of items removed
+     */
+    public int collectGarbage() {
+        if (tombstones == 0 || !pendingInserts.isEmpty() || !pendingDeletes.isEmpty()) {
+            return 0;
+        }
+        for (StateVector peer : peerVectors.values()) {
+            if (!peer.covers(stateVector)) {
+                return 0;
+            }
+        }
+
+        // Copy the visible items into fresh blocks, filled halfway so that inserts do not split them right away
+        List<Block> compacted = new ArrayList<>();
+        ItemLocations compactedLocations = new ItemLocations();
+        Block target = new Block(0);
+        compacted.add(target);
+        for (Block block : blocks) {
+            for (int i = 0; i < block.size; i++) {
+                if (block.deletions[i] != 0) {
+                    continue;
+                }
+                if (target.size == BLOCK_CAPACITY / 2) {
+                    target = new Block(compacted.size());
+                    compacted.add(target);
+                }
+                target.add(target.size, block.ids[i], block.origins[i], block.chars[i]);
+                compactedLocations.put(block.ids[i], target);
+            }
+        }
+        int removed = tombstones;
+        blocks = compacted;
+        locations = compactedLocations;
+        size -= removed;
+        tombstones = 0;
+        gcHorizon = stateVector.copy();
+        return removed;
+    }
+
+    private void collectGarbageIfNeeded() {
+        if (tombstones >= GC_MIN_TOMBSTONES && tombstones > length() / 4) {
+            collectGarbage();
+        }
+    }
+
+    private void integrateInsert(InsertRun run, ChangeBuilder change) {
+        Cursor last = null;
+        for (int k = 0; k < run.text.length; k++) {
+            int itemClock = run.startClock + k;
+            long id = packId(run.client, itemClock);
+            if (isIntegrated(run.client, itemClock, id)) {
+                last = null;
+                continue;
+            }
+            long origin = k == 0 ? run.origin : packId(run.client, itemClock - 1);
+
+            Cursor cursor;
+            if (origin == 0) {
+                cursor = new Cursor(blocks.get(0), 0);
+            } else if (last != null && last.offset > 0 && last.block.ids[last.offset - 1] == origin) {
+                cursor = last;
+            } else {
+                cursor = find(origin);
+                if (cursor == null) {
+                    // The origin comes with an update we have not received yet
+                    pendingInserts.add(new InsertRun(run.client, itemClock, origin,
+                            Arrays.copyOfRange(run.text, k, run.text.length)));
+                    return;
+                }
+                cursor.offset++;
+            }
+
+            while (true) {
+                if (cursor.offset == cursor.block.size) {
+                    if (cursor.block.ordinal + 1 == blocks.size()) {
+                        break;
+                    }
+                    cursor.moveTo(blocks.get(cursor.block.ordinal + 1), 0);
+                } else if (cursor.block.ids[cursor.offset] > id) {
+                    cursor.offset++;
+                } else {
+                    break;
+                }
+            }
+            change.insert(visibleBefore(cursor), run.text[k]);
+            insertItem(cursor, id, origin, run.text[k]);
+            stateVector.observe(run.client, itemClock);
+            clock = Math.max(clock, itemClock);
+            last = cursor;
+        }
+    }
+
+    private void integrateDelete(DeleteRun run, ChangeBuilder change) {
+        Cursor cursor = null;
+        for (int k = 0; k < run.length; k++) {
+            int itemClock = run.startClock + k;
+            long id = packId(run.client, itemClock);
+            if (cursor != null && cursor.offset + 1 < cursor.block.size && cursor.block.ids[cursor.offset + 1] == id) {
+                cursor.offset++;
+            } else {
+                cursor = find(id);
+            }
+            if (cursor == null) {
+                if (!gcHorizon.covers(run.client, itemClock)) {
+                    // Deleted items come with an update we have not received yet
+                    pendingDeletes.add(new DeleteRun(run.client, itemClock, run.length - k, run.stamp));
+                    return;
+                }
+                // Already deleted and compacted
+                continue;
+            }
+            if (cursor.block.deletions[cursor.offset] == 0) {
+                change.delete(visibleBefore(cursor));
+                delete(cursor, run.stamp);
+            }
+        }
+        stateVector.observe(clientOf(run.stamp), clockOf(run.stamp));
+        clock = Math.max(clock, clockOf(run.stamp));
+    }
+
+    /**
+     * The state vector alone cannot tell whether an item is known: it also counts clocks of items
+     * that arrived before the items they were inserted after and are still pending.
+     */
+    private boolean isIntegrated(int itemClient, int itemClock, long id) {
+        if (!stateVector.covers(itemClient, itemClock)) {
+            return false;
+        }
+        return gcHorizon.covers(itemClient, itemClock) || locations.get(id) != null;
+    }
+
+    private void integratePending(ChangeBuilder change) {
+        boolean progress = true;
+        while (progress && (!pendingInserts.isEmpty() || !pendingDeletes.isEmpty())) {
+            int before = pendingInserts.size() + pendingDeletes.size();
+            List<InsertRun> inserts = new ArrayList<>(pendingInserts);
+            List<DeleteRun> deletes = new ArrayList<>(pendingDeletes);
+            pendingInserts.clear();
+            pendingDeletes.clear();
+            for (InsertRun run : inserts) {
+                integrateInsert(run, change);
+            }
+            for (DeleteRun run : deletes) {
+                integrateDelete(run, change);
+            }
+            progress = pendingInserts.size() + pendingDeletes.size() < before;
+        }
+    }
+
+    private void recordPeer(int peer, StateVector vector) {
+        if (peer == client) {
+            return;
+        }
+        peerVectors.computeIfAbsent(peer, ignored -> new StateVector()).merge(vector);
+    }
+
+    private void adoptState(SequenceCrdt other) {
+        blocks = other.blocks;
+        locations = other.locations;
+        size = other.size;
+        tombstones = other.tombstones;
+        stateVector.merge(other.stateVector);
+        clock = Math.max(clock, stateVector.maxClock());
+        gcHorizon = other.gcHorizon;
+        pendingInserts.clear();
+        pendingDeletes.clear();
+    }
+
+    private byte[] encodeItems(int flag, StateVector since) {
+        List<InsertRun> inserts = new ArrayList<>();
+        List<DeleteRun> deletes = new ArrayList<>();
+        InsertRun current = null;
+        int currentLength = 0;
+        char[] buffer = new char[16];
+
+        for (Block block : blocks) {
+            for (int i = 0; i < block.size; i++) {
+                long id = block.ids[i];
+                long origin = block.origins[i];
+                int itemClient = clientOf(id);
+                int itemClock = clockOf(id);
+                boolean itemMissing = !since.covers(itemClient, itemClock);
+                if (itemMissing) {
+                    boolean continuesRun = current != null
+                            && current.client == itemClient
+                            && current.startClock + currentLength == itemClock
+                            && origin == packId(itemClient, itemClock - 1);
+                    if (!continuesRun) {
+                        if (current != null) {
+                            inserts.add(current.withText(Arrays.copyOf(buffer, currentLength)));
+                        }
+                        current = new InsertRun(itemClient, itemClock, origin, null);
+                        currentLength = 0;
+                    }
+                    if (currentLength == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    buffer[currentLength++] = block.chars[i];
+                }
+                long stamp = block.deletions[i];
+                if (stamp != 0 && (itemMissing || !since.covers(clientOf(stamp), clockOf(stamp)))) {
+                    appendDeleteRun(deletes, id, stamp);
+                }
+            }
+        }
+        if (current != null) {
+            inserts.add(current.withText(Arrays.copyOf(buffer, currentLength)));
+        }
+        return encode(flag, inserts, deletes);
+    }
+
+    private byte[] encode(int flag, List<InsertRun> inserts, List<DeleteRun> deletes) {
+        BinaryWriter writer = new BinaryWriter(32 + inserts.size() * 16 + deletes.size() * 12);
+        writer.writeVarInt(FORMAT_VERSION);
+        writer.writeVarInt(flag);
+        writer.writeVarInt(client);
+        stateVector.write(writer);
+        gcHorizon.write(writer);
+        writer.writeVarInt(inserts.size());
+        for (InsertRun run : inserts) {
+            run.write(writer);
+        }
+        writer.writeVarInt(deletes.size());
+        for (DeleteRun run : deletes) {
+            run.write(writer);
+        }
+        return writer.toByteArray();
+    }
+
+    private static int readHeader(BinaryReader reader) {
+        int version = reader.readVarInt();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported CRDT format version: " + version);
+        }
+        return reader.readVarInt();
+    }
+
+    private static void appendDeleteRun(List<DeleteRun> deletes, long id, long stamp) {
+        int itemClient = clientOf(id);
+        int itemClock = clockOf(id);
+        if (!deletes.isEmpty()) {
+            DeleteRun last = deletes.get(deletes.size() - 1);
+            if (last.stamp == stamp && last.client == itemClient && last.startClock + last.length == itemClock) {
+                last.length++;
+                return;
+            }
+        }
+        deletes.add(new DeleteRun(itemClient, itemClock, 1, stamp));
+    }
+
+    /**
+     * Moves the cursor past the given number of visible items, skipping whole blocks by their visible count
+     */
+    private void skipVisible(Cursor cursor, int count) {
+        int remaining = count;
+        while (remaining > 0) {
+            Block block = cursor.block;
+            if (cursor.offset == block.size) {
+                cursor.moveTo(blocks.get(block.ordinal + 1), 0);
+            } else if (cursor.offset == 0 && block.visible < remaining) {
+                remaining -= block.visible;
+                cursor.offset = block.size;
+            } else {
+                if (block.deletions[cursor.offset] == 0) {
+                    remaining--;
+                }
+                cursor.offset++;
+            }
+        }
+    }
+
+    /**
+     * Moves the cursor back until the item before it is visible or it reaches the start of the document
+     */
+    private void skipTombstonesBackward(Cursor cursor) {
+        while (true) {
+            if (cursor.offset == 0) {
+                if (cursor.block.ordinal == 0) {
+                    return;
+                }
+                Block previous = blocks.get(cursor.block.ordinal - 1);
+                cursor.moveTo(previous, previous.size);
+            } else if (cursor.block.deletions[cursor.offset - 1] == 0) {
+                return;
+            } else {
+                cursor.offset--;
+            }
+        }
+    }
+
+    /**
+     * Counts the visible items before the cursor, summing the visible counts of the blocks before its block
+     */
+    private int visibleBefore(Cursor cursor) {
+        int visible = 0;
+        for (int b = 0; b < cursor.block.ordinal; b++) {
+            visible += blocks.get(b).visible;
+        }
+        Block block = cursor.block;
+        for (int i = 0; i < cursor.offset; i++) {
+            if (block.deletions[i] == 0) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * @return a cursor at the item with the given ID, or null if the item is unknown or compacted
+     */
+    private Cursor find(long id) {
+        Block block = locations.get(id);
+        return block != null ? new Cursor(block, block.indexOf(id)) : null;
+    }
+
+    private void delete(Cursor item, long stamp) {
+        item.block.deletions[item.offset] = stamp;
+        item.block.visible--;
+        tombstones++;
+    }
+
+    private void appendItem(long id, long origin, char value) {
+        Block last = blocks.get(blocks.size() - 1);
+        insertItem(new Cursor(last, last.size), id, origin, value);
+    }
+
+    /**
+     * Inserts an item at the cursor and moves the cursor past it, splitting the block first if it is full
+     */
+    private void insertItem(Cursor cursor, long id, long origin, char value) {
+        if (cursor.block.size == BLOCK_CAPACITY) {
+            Block tail = split(cursor.block);
+            if (cursor.offset > cursor.block.size) {
+                cursor.moveTo(tail, cursor.offset - cursor.block.size);
+            }
+        }
+        cursor.block.add(cursor.offset, id, origin, value);
+        locations.put(id, cursor.block);
+        cursor.offset++;
+        size++;
+    }
+
+    /**
+     * Moves the second half of a block into a new block right after it
+     * @return the new block
+     */
+    private Block split(Block block) {
+        Block tail = new Block(block.ordinal + 1);
+        int keep = block.size / 2;
+        for (int i = keep; i < block.size; i++) {
+            tail.add(tail.size, block.ids[i], block.origins[i], block.chars[i]);
+            tail.deletions[tail.size - 1] = block.deletions[i];
+            if (block.deletions[i] == 0) {
+                block.visible--;
+            } else {
+                tail.visible--;
+            }
+            locations.put(block.ids[i], tail);
+        }
+        block.size = keep;
+        blocks.add(tail.ordinal, tail);
+        for (int b = tail.ordinal + 1; b < blocks.size(); b++) {
+            blocks.get(b).ordinal = b;
+        }
+        return tail;
+    }
+
+    static long packId(int client, int clock) {
+        return ((long) clock << 32) | (client & 0xFFFFFFFFL);
+    }
+
+    static int clientOf(long id) {
+        return (int) id;
+    }
+
+    static int clockOf(long id) {
+        return (int) (id >>> 32);
+    }
+
+    /**
+     * Consecutive items in document order, stored in parallel primitive arrays with a count of the visible ones.
+     */
+    private static final class Block {
+        private long[] ids = new long[16];
+        private long[] origins = new long[16];
+        /** ID of the delete operation for tombstones, 0 for visible items. */
+        private long[] deletions = new long[16];
+        private char[] chars = new char[16];
+        private int size;
+        private int visible;
+        /** Index of this block in the document. */
+        private int ordinal;
+
+        private Block(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
+        private void add(int index, long id, long origin, char value) {
+            if (size == ids.length) {
+                int capacity = Math.min(BLOCK_CAPACITY, size * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                origins = Arrays.copyOf(origins, capacity);
+                deletions = Arrays.copyOf(deletions, capacity);
+                chars = Arrays.copyOf(chars, capacity);
+            }
+            int moved = size - index;
+            if (moved > 0) {
+                System.arraycopy(ids, index, ids, index + 1, moved);
+                System.arraycopy(origins, index, origins, index + 1, moved);
+                System.arraycopy(deletions, index, deletions, index + 1, moved);
+                System.arraycopy(chars, index, chars, index + 1, moved);
+            }
+            ids[index] = id;
+            origins[index] = origin;
+            deletions[index] = 0;
+            chars[index] = value;
+            size++;
+            visible++;
+        }
+
+        private int indexOf(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Position between two items: before the item at the offset of the block, or after its last item.
+     */
+    private static final class Cursor {
+        private Block block;
+        private int offset;
+
+        private Cursor(Block block, int offset) {
+            this.block = block;
+            this.offset = offset;
+        }
+
+        private void moveTo(Block target, int targetOffset) {
+            block = target;
+            offset = targetOffset;
+        }
+    }
+
+    /**
+     * Block holding each item, by replica and clock. The clocks of one replica are dense, so they index
+     * an array that starts at the oldest clock of the replica still held.
+     */
+    private static final class ItemLocations {
+        private final Map<Integer, ReplicaLocations> replicas = new HashMap<>();
+
+        private Block get(long id) {
+            ReplicaLocations replica = replicas.get(clientOf(id));
+            return replica != null ? replica.get(clockOf(id)) : null;
+        }
+
+        private void put(long id, Block block) {
+            int itemClock = clockOf(id);
+            replicas.computeIfAbsent(clientOf(id), ignored -> new ReplicaLocations(itemClock)).put(itemClock, block);
+        }
+    }
+
+    private static final class ReplicaLocations {
+        private int base;
+        private Block[] blocks = new Block[16];
+
+        private ReplicaLocations(int base) {
+            this.base = base;
+        }
+
+        private Block get(int itemClock) {
+            int index = itemClock - base;
+            return index >= 0 && index < blocks.length ? blocks[index] : null;
+        }
+
+        private void put(int itemClock, Block block) {
+            if (itemClock < base) {
+                Block[] grown = new Block[blocks.length + base - itemClock];
+                System.arraycopy(blocks, 0, grown, base - itemClock, blocks.length);
+                blocks = grown;
+                base = itemClock;
+            }
+            int index = itemClock - base;
+            if (index >= blocks.length) {
+                blocks = Arrays.copyOf(blocks, Math.max(index + 1, blocks.length + (blocks.length >> 1)));
+            }
+            blocks[index] = block;
+        }
+    }
+
+    /**
+     * Consecutive items of one replica where every item was inserted right after the previous one.
+     */
+    private static final class InsertRun {
+        private final int client;
+        private final int startClock;
+        private final long origin;
+        private final char[] text;
+
+        private InsertRun(int client, int startClock, long origin, char[] text) {
+            this.client = client;
+            this.startClock = startClock;
+            this.origin = origin;
+            this.text = text;
+        }
+
+        private InsertRun withText(char[] runText) {
+            return new InsertRun(client, startClock, origin, runText);
+        }
+
+        private void write(BinaryWriter writer) {
+            writer.writeVarInt(client);
+            writer.writeVarInt(startClock);
+            writer.writeVarInt(origin == 0 ? 0 : clockOf(origin));
+            writer.writeVarInt(origin == 0 ? 0 : clientOf(origin));
+            writer.writeChars(text, 0, text.length);
+        }
+
+        private static InsertRun read(BinaryReader reader) {
+            int client = reader.readVarInt();
+            int startClock = reader.readVarInt();
+            int originClock = reader.readVarInt();
+            int originClient = reader.readVarInt();
+            long origin = originClock == 0 ? 0 : packId(originClient, originClock);
+            return new InsertRun(client, startClock, origin, reader.readChars());
+        }
+    }
+
+    /**
+     * Items with consecutive IDs of one replica deleted by the same operation.
+     */
+    private static final class DeleteRun {
+        private final int client;
+        private final int startClock;
+        private int length;
+        private final long stamp;
+
+        private DeleteRun(int client, int startClock, int length, long stamp) {
+            this.client = client;
+            this.startClock = startClock;
+            this.length = length;
+            this.stamp = stamp;
+        }
+
+        private void write(BinaryWriter writer) {
+            writer.writeVarInt(client);
+            writer.writeVarInt(startClock);
+            writer.writeVarInt(length);
+            writer.writeVarInt(clientOf(stamp));
+            writer.writeVarInt(clockOf(stamp));
+        }
+
+        private static DeleteRun read(BinaryReader reader) {
+            int client = reader.readVarInt();
+            int startClock = reader.readVarInt();
+            int length = reader.readVarInt();
+            int stampClient = reader.readVarInt();
+            int stampClock = reader.readVarInt();
+            return new DeleteRun(client, startClock, length, packId(stampClient, stampClock));
+        }
+    }
+
+    /**
+     * Accumulates single-character edits of the visible text into one operation,
+     * merging typing runs and contiguous deletes before composing.
+     */
+    private static final class ChangeBuilder {
+        private TextOperation change;
+        private int length;
+
+        private final StringBuilder pendingInsert = new StringBuilder();
+        private int pendingPosition = -1;
+        private int pendingDeletes;
+
+        private ChangeBuilder(int length) {
+            this.change = new TextOperation().retain(length);
+            this.length = length;
+        }
+
+        private void insert(int position, char value) {
+            if (pendingDeletes > 0 || (pendingPosition >= 0 && position != pendingPosition + pendingInsert.length())) {
+                flush();
+            }
+            if (pendingPosition < 0) {
+                pendingPosition = position;
+            }
+            pendingInsert.append(value);
+        }
+
+        private void delete(int position) {
+            if (pendingInsert.length() > 0 || (pendingPosition >= 0 && position != pendingPosition)) {
+                flush();
+            }
+            if (pendingPosition < 0) {
+                pendingPosition = position;
+            }
+            pendingDeletes++;
+        }
+
+        private void flush() {
+            if (pendingPosition < 0) {
+                return;
+            }
+            TextOperation edit = new TextOperation().retain(pendingPosition);
+            if (pendingInsert.length() > 0) {
+                edit.insert(pendingInsert.toString()).retain(length - pendingPosition);
+                length += pendingInsert.length();
+            } else {
+                edit.delete(pendingDeletes).retain(length - pendingPosition - pendingDeletes);
+                length -= pendingDeletes;
+            }
+            change = OperationTransformer.compose(change, edit);
+            pendingInsert.setLength(0);
+            pendingDeletes = 0;
+            pendingPosition = -1;
+        }
+
+        private TextOperation build() {
+            flush();
+            return change;
+        }
+    }
+}
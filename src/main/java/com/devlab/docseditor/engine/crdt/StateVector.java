@@ -0,0 +1,136 @@
+package com.devlab.docseditor.engine.crdt;
+
+import java.util.Arrays;
+
+/**
+ * Highest clock seen per replica, kept in two sorted primitive arrays.
+ * Replicas exchange state vectors to ask each other only for the operations they are missing.
+ */
+public final class StateVector {
+
+    private int[] clients;
+    private int[] clocks;
+    private int size;
+
+    public StateVector() {
+        this.clients = new int[4];
+        this.clocks = new int[4];
+    }
+
+    /**
+     * @param client the replica ID
+     * @return the highest clock seen from that replica, or 0
+     */
+    public int get(int client) {
+        int index = Arrays.binarySearch(clients, 0, size, client);
+        return index >= 0 ? clocks[index] : 0;
+    }
+
+    /**
+     * Records that an operation with the given clock from the given replica has been seen
+     * @param client the replica ID
+     * @param clock the operation clock
+     */
+    public void observe(int client, int clock) {
+        int index = Arrays.binarySearch(clients, 0, size, client);
+        if (index >= 0) {
+            if (clock > clocks[index]) {
+                clocks[index] = clock;
+            }
+            return;
+        }
+        int insertAt = -index - 1;
+        if (size == clients.length) {
+            clients = Arrays.copyOf(clients, size * 2);
+            clocks = Arrays.copyOf(clocks, size * 2);
+        }
+        System.arraycopy(clients, insertAt, clients, insertAt + 1, size - insertAt);
+        System.arraycopy(clocks, insertAt, clocks, insertAt + 1, size - insertAt);
+        clients[insertAt] = client;
+        clocks[insertAt] = clock;
+        size++;
+    }
+
+    /**
+     * @return true if the operation with the given ID has been seen
+     */
+    public boolean covers(int client, int clock) {
+        return clock <= get(client);
+    }
+
+    /**
+     * @return the number of replicas in this vector
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param other another vector
+     * @return true if this vector has seen everything the other vector has seen
+     */
+    public boolean covers(StateVector other) {
+        for (int i = 0; i < other.size; i++) {
+            if (!covers(other.clients[i], other.clocks[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Raises every entry to the matching entry of another vector
+     * @param other the other vector
+     */
+    public void merge(StateVector other) {
+        for (int i = 0; i < other.size; i++) {
+            observe(other.clients[i], other.clocks[i]);
+        }
+    }
+
+    /**
+     * @return the highest clock in this vector, or 0
+     */
+    public int maxClock() {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, clocks[i]);
+        }
+        return max;
+    }
+
+    public StateVector copy() {
+        StateVector copy = new StateVector();
+        copy.clients = Arrays.copyOf(clients, Math.max(4, size));
+        copy.clocks = Arrays.copyOf(clocks, Math.max(4, size));
+        copy.size = size;
+        return copy;
+    }
+
+    public byte[] encode() {
+        BinaryWriter writer = new BinaryWriter(1 + size * 8);
+        write(writer);
+        return writer.toByteArray();
+    }
+
+    public static StateVector decode(byte[] encoded) {
+        return read(new BinaryReader(encoded));
+    }
+
+    void write(BinaryWriter writer) {
+        writer.writeVarInt(size);
+        for (int i = 0; i < size; i++) {
+            writer.writeVarInt(clients[i]);
+            writer.writeVarInt(clocks[i]);
+        }
+    }
+
+    static StateVector read(BinaryReader reader) {
+        StateVector vector = new StateVector();
+        int count = reader.readVarInt();
+        for (int i = 0; i < count; i++) {
+            vector.observe(reader.readVarInt(), reader.readVarInt());
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,11 @@
+package com.devlab.docseditor.engine.ot;
+
+/**
+ * Result of applying a client operation: the operation as it was actually applied and the revision it produced.
+ *
+ * @param operation the operation after transformation against concurrent edits
+ * @param revision the document revision after the operation
+ * @param update the encoded CRDT update for replicas on other nodes, or null if the document has no replica
+ */
+public record AppliedOperation(TextOperation operation, long revision, byte[] update) {
+}
@@ -0,0 +1,90 @@
+package com.devlab.docseditor.engine.ot;
+
+import com.devlab.docseditor.exception.StaleRevisionException;
+
+/**
+ * Bounded history of the operations applied to a document, indexed by revision.
+ * <p>
+ * The operation that moved the document from revision {@code r} to {@code r + 1} is kept in a ring
+ * buffer slot, so recording an operation never allocates and the memory per document is fixed.
+ * A client operation based on an older revision is rebased by transforming it against every
+ * operation recorded since; only clients that fell behind the whole buffer need a full resync.
+ * Not thread-safe, callers serialize access per document.
+ */
+public class OperationHistory {
+
+    private final TextOperation[] operations;
+    private long revision;
+    private int count;
+
+    /**
+     * @param capacity number of operations to keep
+     * @param revision the current revision of the document
+     */
+    public OperationHistory(int capacity, long revision) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.operations = new TextOperation[capacity];
+        this.revision = revision;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the oldest revision a client operation can still be based on
+     */
+    public long getOldestRevision() {
+        return revision - count;
+    }
+
+    /**
+     * Records an operation that has been applied to the document
+     * @param operation the applied operation
+     * @return the new revision
+     */
+    public long record(TextOperation operation) {
+        operations[slot(revision)] = operation;
+        if (count < operations.length) {
+            count++;
+        }
+        return ++revision;
+    }
+
+    /**
+     * Rebases an operation onto the current revision
+     * @param baseRevision the revision the operation was created against
+     * @param operation the operation
+     * @return the operation transformed against everything applied since {@code baseRevision}
+     * @throws StaleRevisionException if the base revision is unknown or no longer in the history
+     */
+    public TextOperation rebase(long baseRevision, TextOperation operation) {
+        if (baseRevision > revision || baseRevision < getOldestRevision()) {
+            throw new StaleRevisionException("Revision " + baseRevision + " is outside of the history ["
+                    + getOldestRevision() + ", " + revision + "]");
+        }
+        TextOperation rebased = operation;
+        for (long r = baseRevision; r < revision; r++) {
+            rebased = OperationTransformer.transformAgainst(rebased, operations[slot(r)]);
+        }
+        return rebased;
+    }
+
+    /**
+     * Returns the recorded operation that produced a revision
+     * @param revision the revision, {@code getOldestRevision() < revision <= getRevision()}
+     * @return the operation that moved the document to that revision
+     */
+    public TextOperation operationAt(long revision) {
+        if (revision <= getOldestRevision() || revision > this.revision) {
+            throw new StaleRevisionException("Revision " + revision + " is outside of the history");
+        }
+        return operations[slot(revision - 1)];
+    }
+
+    private int slot(long revision) {
+        return (int) (revision % operations.length);
+    }
+}
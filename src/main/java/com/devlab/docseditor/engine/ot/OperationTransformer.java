@@ -0,0 +1,174 @@
+package com.devlab.docseditor.engine.ot;
+
+/**
+ * Transform and compose for {@link TextOperation}s.
+ * <p>
+ * Both algorithms walk the components of two operations with index cursors and carry the unconsumed
+ * part of the current component as a plain int, so no intermediate component objects are created.
+ */
+public final class OperationTransformer {
+
+    private OperationTransformer() {
+    }
+
+    /**
+     * Transforms two concurrent operations that were based on the same document.
+     * The result {@code [a', b']} satisfies {@code apply(apply(doc, a), b') == apply(apply(doc, b), a')}.
+     * When both insert at the same position, the text of {@code a} goes first.
+     * @param a the first operation
+     * @param b the second operation
+     * @return a two-element array with the transformed operations
+     * @throws IllegalArgumentException if the operations are not based on the same document length
+     */
+    public static TextOperation[] transform(TextOperation a, TextOperation b) {
+        TextOperation aPrime = new TextOperation();
+        TextOperation bPrime = new TextOperation();
+        transform(a, b, aPrime, bPrime);
+        return new TextOperation[]{aPrime, bPrime};
+    }
+
+    /**
+     * Transforms {@code a} so it can be applied after the concurrent operation {@code b}.
+     * Equivalent to {@code transform(a, b)[0]} without building the other half.
+     * @param a the operation to rebase
+     * @param b the operation that was applied first
+     * @return the transformed operation
+     */
+    public static TextOperation transformAgainst(TextOperation a, TextOperation b) {
+        TextOperation aPrime = new TextOperation();
+        transform(a, b, aPrime, null);
+        return aPrime;
+    }
+
+    /**
+     * Composes two consecutive operations into one with the same effect
+     * @param a the first operation
+     * @param b the operation applied after {@code a}
+     * @return an operation equivalent to applying {@code a} then {@code b}
+     * @throws IllegalArgumentException if the target length of {@code a} is not the base length of {@code b}
+     */
+    public static TextOperation compose(TextOperation a, TextOperation b) {
+        if (a.getTargetLength() != b.getBaseLength()) {
+            throw new IllegalArgumentException("Target length of the first operation (" + a.getTargetLength()
+                    + ") must equal the base length of the second (" + b.getBaseLength() + ")");
+        }
+
+        TextOperation result = new TextOperation();
+        int sizeA = a.size();
+        int sizeB = b.size();
+        int i = 0;
+        int j = 0;
+        // Remaining length of the current component, and how far into the current insert of a we are
+        int remainingA = sizeA > 0 ? a.length(0) : 0;
+        int remainingB = sizeB > 0 ? b.length(0) : 0;
+        int insertOffsetA = 0;
+
+        while (i < sizeA || j < sizeB) {
+            if (i < sizeA && a.isDelete(i)) {
+                result.delete(remainingA);
+                remainingA = ++i < sizeA ? a.length(i) : 0;
+                insertOffsetA = 0;
+                continue;
+            }
+            if (j < sizeB && b.isInsert(j)) {
+                result.insert(b.insertedText(j));
+                remainingB = ++j < sizeB ? b.length(j) : 0;
+                continue;
+            }
+            if (i >= sizeA || j >= sizeB) {
+                throw new IllegalArgumentException("Cannot compose operations: one operation is too short");
+            }
+
+            int length = Math.min(remainingA, remainingB);
+            if (a.isRetain(i)) {
+                if (b.isRetain(j)) {
+                    result.retain(length);
+                } else {
+                    result.delete(length);
+                }
+            } else if (b.isRetain(j)) {
+                // a inserts, b keeps the inserted text
+                String text = a.insertedText(i);
+                result.insert(insertOffsetA == 0 && length == text.length()
+                        ? text
+                        : text.substring(insertOffsetA, insertOffsetA + length));
+            }
+            // a inserts and b deletes: the text never shows up in the result
+
+            remainingA -= length;
+            remainingB -= length;
+            if (remainingA == 0) {
+                remainingA = ++i < sizeA ? a.length(i) : 0;
+                insertOffsetA = 0;
+            } else if (a.isInsert(i)) {
+                insertOffsetA += length;
+            }
+            if (remainingB == 0) {
+                remainingB = ++j < sizeB ? b.length(j) : 0;
+            }
+        }
+        return result;
+    }
+
+    private static void transform(TextOperation a, TextOperation b, TextOperation aPrime, TextOperation bPrime) {
+        if (a.getBaseLength() != b.getBaseLength()) {
+            throw new IllegalArgumentException("Both operations must have the same base length: "
+                    + a.getBaseLength() + " != " + b.getBaseLength());
+        }
+
+        int sizeA = a.size();
+        int sizeB = b.size();
+        int i = 0;
+        int j = 0;
+        int remainingA = sizeA > 0 ? a.length(0) : 0;
+        int remainingB = sizeB > 0 ? b.length(0) : 0;
+
+        while (i < sizeA || j < sizeB) {
+            if (i < sizeA && a.isInsert(i)) {
+                aPrime.insert(a.insertedText(i));
+                if (bPrime != null) {
+                    bPrime.retain(remainingA);
+                }
+                remainingA = ++i < sizeA ? a.length(i) : 0;
+                continue;
+            }
+            if (j < sizeB && b.isInsert(j)) {
+                aPrime.retain(remainingB);
+                if (bPrime != null) {
+                    bPrime.insert(b.insertedText(j));
+                }
+                remainingB = ++j < sizeB ? b.length(j) : 0;
+                continue;
+            }
+            if (i >= sizeA || j >= sizeB) {
+                throw new IllegalArgumentException("Cannot transform operations: one operation is too short");
+            }
+
+            int length = Math.min(remainingA, remainingB);
+            boolean retainA = a.isRetain(i);
+            boolean retainB = b.isRetain(j);
+            if (retainA && retainB) {
+                aPrime.retain(length);
+                if (bPrime != null) {
+                    bPrime.retain(length);
+                }
+            } else if (!retainA && retainB) {
+                aPrime.delete(length);
+            } else if (retainA) {
+                if (bPrime != null) {
+                    bPrime.delete(length);
+                }
+            }
+            // Both delete the same range: nothing left to do on either side
+
+            remainingA -= length;
+            remainingB -= length;
+            if (remainingA == 0) {
+                remainingA = ++i < sizeA ? a.length(i) : 0;
+            }
+            if (remainingB == 0) {
+                remainingB = ++j < sizeB ? b.length(j) : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.devlab.docseditor.engine.ot;
+
+import com.devlab.docseditor.engine.Rope;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A text operation made of retain, insert and delete components that walks over the whole document.
+ * <p>
+ * On the wire an operation is a compact JSON array: a positive number retains that many characters,
+ * a negative number deletes that many characters and a string inserts its text, e.g. {@code [5, "abc", -3, 12]}.
+ * Components are stored in primitive arrays instead of a list of objects so that building and applying
+ * an operation does not box every retain and delete count.
+ */
+public final class TextOperation {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** Positive for retain, negative for delete, zero for insert. */
+    private int[] lengths;
+    /** Inserted text for insert components, null otherwise. */
+    private String[] inserts;
+    private int size;
+
+    private int baseLength;
+    private int targetLength;
+
+    public TextOperation() {
+        this.lengths = new int[INITIAL_CAPACITY];
+        this.inserts = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Skips over the given number of characters
+     * @param count number of characters to retain
+     * @return this operation
+     */
+    public TextOperation retain(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Retain count must be positive: " + count);
+        }
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        targetLength += count;
+        if (size > 0 && lengths[size - 1] > 0) {
+            lengths[size - 1] += count;
+        } else {
+            append(count, null);
+        }
+        return this;
+    }
+
+    /**
+     * Inserts text at the current position
+     * @param text the text to insert
+     * @return this operation
+     */
+    public TextOperation insert(String text) {
+        if (text == null || text.isEmpty()) {
+            return this;
+        }
+        targetLength += text.length();
+        if (size > 0 && inserts[size - 1] != null) {
+            // Merge with the previous insert
+            inserts[size - 1] = inserts[size - 1] + text;
+        } else if (size > 0 && lengths[size - 1] < 0) {
+            // Keep inserts before deletes so that equivalent operations have the same representation
+            if (size > 1 && inserts[size - 2] != null) {
+                inserts[size - 2] = inserts[size - 2] + text;
+            } else {
+                int delete = lengths[size - 1];
+                lengths[size - 1] = 0;
+                inserts[size - 1] = text;
+                append(delete, null);
+            }
+        } else {
+            append(0, text);
+        }
+        return this;
+    }
+
+    /**
+     * Deletes the given number of characters at the current position
+     * @param count number of characters to delete
+     * @return this operation
+     */
+    public TextOperation delete(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Delete count must be positive: " + count);
+        }
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        if (size > 0 && lengths[size - 1] < 0) {
+            lengths[size - 1] -= count;
+        } else {
+            append(-count, null);
+        }
+        return this;
+    }
+
+    /**
+     * Applies this operation to a document
+     * @param document the document content, its length must equal the base length of this operation
+     * @return the new content
+     * @throws IllegalArgumentException if the operation does not fit the document
+     */
+    public String apply(String document) {
+        String source = document != null ? document : "";
+        if (source.length() != baseLength) {
+            throw new IllegalArgumentException(
+                    "Operation base length " + baseLength + " does not match document length " + source.length());
+        }
+        StringBuilder result = new StringBuilder(targetLength);
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            int length = lengths[i];
+            if (inserts[i] != null) {
+                result.append(inserts[i]);
+            } else if (length > 0) {
+                result.append(source, position, position + length);
+                position += length;
+            } else {
+                position -= length;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Applies this operation to a document held as a rope, editing only where the operation inserts or deletes
+     * @param document the document, its length must equal the base length of this operation
+     * @return the new document
+     * @throws IllegalArgumentException if the operation does not fit the document
+     */
+    public Rope apply(Rope document) {
+        if (document.length() != baseLength) {
+            throw new IllegalArgumentException(
+                    "Operation base length " + baseLength + " does not match document length " + document.length());
+        }
+        Rope result = document;
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            int length = lengths[i];
+            if (inserts[i] != null) {
+                // An insert directly followed by a delete replaces the deleted text in one edit
+                int deleted = i + 1 < size && lengths[i + 1] < 0 ? -lengths[i + 1] : 0;
+                result = result.replace(position, position + deleted, inserts[i]);
+                position += inserts[i].length();
+                if (deleted > 0) {
+                    i++;
+                }
+            } else if (length > 0) {
+                position += length;
+            } else {
+                result = result.delete(position, position - length);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds an operation turning one text into another by replacing everything between
+     * their common prefix and common suffix
+     * @param oldText the current text
+     * @param newText the desired text
+     * @return the operation
+     */
+    public static TextOperation diff(String oldText, String newText) {
+        String source = oldText != null ? oldText : "";
+        String target = newText != null ? newText : "";
+        int limit = Math.min(source.length(), target.length());
+        int prefix = 0;
+        while (prefix < limit && source.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && source.charAt(source.length() - 1 - suffix) == target.charAt(target.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return new TextOperation()
+                .retain(prefix)
+                .insert(target.substring(prefix, target.length() - suffix))
+                .delete(source.length() - prefix - suffix)
+                .retain(suffix);
+    }
+
+    /**
+     * @return true if applying this operation leaves every document unchanged
+     */
+    public boolean isNoop() {
+        return size == 0 || (size == 1 && lengths[0] > 0);
+    }
+
+    public int getBaseLength() {
+        return baseLength;
+    }
+
+    public int getTargetLength() {
+        return targetLength;
+    }
+
+    /**
+     * @return the number of components in this operation
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isRetain(int index) {
+        return inserts[index] == null && lengths[index] > 0;
+    }
+
+    public boolean isInsert(int index) {
+        return inserts[index] != null;
+    }
+
+    public boolean isDelete(int index) {
+        return lengths[index] < 0;
+    }
+
+    /**
+     * @param index component index
+     * @return the length a component covers: retained, deleted or inserted characters
+     */
+    public int length(int index) {
+        return inserts[index] != null ? inserts[index].length() : Math.abs(lengths[index]);
+    }
+
+    /**
+     * @param index component index
+     * @return the inserted text of an insert component, or null
+     */
+    public String insertedText(int index) {
+        return inserts[index];
+    }
+
+    /**
+     * Serializes the operation to its compact wire form
+     * @return list of retain counts, insert strings and negative delete counts
+     */
+    @JsonValue
+    public List<Object> toJson() {
+        List<Object> json = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            json.add(inserts[i] != null ? inserts[i] : Integer.valueOf(lengths[i]));
+        }
+        return json;
+    }
+
+    /**
+     * Parses an operation from its compact wire form
+     * @param components list of retain counts, insert strings and negative delete counts
+     * @return the operation
+     * @throws IllegalArgumentException if a component is neither a number nor a string
+     */
+    @JsonCreator
+    public static TextOperation fromJson(List<Object> components) {
+        TextOperation operation = new TextOperation();
+        if (components == null) {
+            return operation;
+        }
+        for (Object component : components) {
+            if (component instanceof String text) {
+                operation.insert(text);
+            } else if (component instanceof Number number) {
+                int value = number.intValue();
+                if (value > 0) {
+                    operation.retain(value);
+                } else {
+                    operation.delete(-value);
+                }
+            } else {
+                throw new IllegalArgumentException("Invalid operation component: " + component);
+            }
+        }
+        return operation;
+    }
+
+    private void append(int length, String insert) {
+        if (size == lengths.length) {
+            int capacity = size * 2;
+            lengths = Arrays.copyOf(lengths, capacity);
+            inserts = Arrays.copyOf(inserts, capacity);
+        }
+        lengths[size] = length;
+        inserts[size] = insert;
+        size++;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof TextOperation operation) || operation.size != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (lengths[i] != operation.lengths[i]) {
+                return false;
+            }
+            if (inserts[i] != null ? !inserts[i].equals(operation.inserts[i]) : operation.inserts[i] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + lengths[i];
+            hash = 31 * hash + (inserts[i] != null ? inserts[i].hashCode() : 0);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,25 @@
+package com.devlab.docseditor.exception;
+
+/**
+ * Exception thrown when a document was changed by someone else between reading and writing it.
+ */
+public class DocumentConflictException extends RuntimeException {
+
+    private static final String DEFAULT_MESSAGE = "Document was modified concurrently.";
+
+    /**
+     * Constructs a new DocumentConflictException with the default message.
+     */
+    public DocumentConflictException() {
+        super(DEFAULT_MESSAGE);
+    }
+
+    /**
+     * Constructs a new DocumentConflictException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public DocumentConflictException(String message) {
+        super(message);
+    }
+}
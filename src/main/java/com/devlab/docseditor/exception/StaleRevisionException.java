@@ -0,0 +1,25 @@
+package com.devlab.docseditor.exception;
+
+/**
+ * Exception thrown when an operation is based on a revision the server can no longer transform against.
+ */
+public class StaleRevisionException extends RuntimeException {
+
+    private static final String DEFAULT_MESSAGE = "Operation is based on a stale revision.";
+
+    /**
+     * Constructs a new StaleRevisionException with the default message.
+     */
+    public StaleRevisionException() {
+        super(DEFAULT_MESSAGE);
+    }
+
+    /**
+     * Constructs a new StaleRevisionException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public StaleRevisionException(String message) {
+        super(message);
+    }
+}
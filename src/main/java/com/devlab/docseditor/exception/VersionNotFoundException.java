@@ -0,0 +1,26 @@
+package com.devlab.docseditor.exception;
+
+/**
+ * Exception thrown when a requested version does not exist in a document's history.
+ */
+public class VersionNotFoundException extends RuntimeException {
+
+    private static final String DEFAULT_MESSAGE = "Version not found.";
+
+    /**
+     * Constructs a new VersionNotFoundException with the default message.
+     */
+    public VersionNotFoundException() {
+        super(DEFAULT_MESSAGE);
+    }
+
+    /**
+     * Constructs a new VersionNotFoundException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public VersionNotFoundException(String message) {
+        super(message);
+    }
+
+}
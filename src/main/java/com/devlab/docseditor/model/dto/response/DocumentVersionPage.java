@@ -0,0 +1,21 @@
+package com.devlab.docseditor.model.dto.response;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Page of version metadata, newest first")
+public class DocumentVersionPage {
+
+    @Schema(description = "Versions of this page, newest first")
+    private List<DocumentVersionSummary> versions;
+
+    @Schema(description = "Value of the 'before' parameter for the next page, or null on the last page", example = "120")
+    private Integer nextCursor;
+}
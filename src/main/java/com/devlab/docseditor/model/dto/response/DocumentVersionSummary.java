@@ -0,0 +1,27 @@
+package com.devlab.docseditor.model.dto.response;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Metadata of a document version, without its content")
+public class DocumentVersionSummary {
+
+    @Schema(description = "1-based number of the version", example = "42")
+    private int versionNumber;
+
+    @Schema(description = "ID of the user who made the change", example = "60c72b2f5e7c2a1b3c9d8e7a")
+    private String editedByUserId;
+
+    @Schema(description = "Time the version was saved", example = "2023-06-12T15:30:45")
+    private LocalDateTime timestamp;
+
+    @Schema(description = "Number of inserted and deleted characters compared to the previous version", example = "17")
+    private int changeSize;
+}
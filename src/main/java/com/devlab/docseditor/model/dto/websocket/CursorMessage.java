@@ -0,0 +1,30 @@
+package com.devlab.docseditor.model.dto.websocket;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Cursor position and selection of a user in a document; ephemeral, never stored")
+public class CursorMessage {
+    @Schema(description = "Unique identifier of the document", example = "60c72b2f5e7c2a1b3c9d8e7f")
+    private String documentId;
+
+    @Schema(description = "ID of the user the cursor belongs to, set by the server", example = "60c72b2f5e7c2a1b3c9d8e7a")
+    private String userId;
+
+    @Schema(description = "Position where the selection starts, in characters", example = "120")
+    private int anchor;
+
+    @Schema(description = "Position of the cursor, equal to anchor without a selection", example = "134")
+    private int head;
+
+    @Schema(description = "Revision of the content the positions refer to", example = "42")
+    private long revision;
+
+    @Schema(description = "Timestamp of the cursor move in milliseconds since epoch", example = "1623456789000")
+    private long timestamp;
+}
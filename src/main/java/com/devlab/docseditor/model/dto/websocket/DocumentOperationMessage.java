@@ -0,0 +1,34 @@
+package com.devlab.docseditor.model.dto.websocket;
+
+import com.devlab.docseditor.engine.ot.TextOperation;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Message carrying an incremental edit (insert/delete/retain operation) via WebSocket")
+public class DocumentOperationMessage {
+    @Schema(description = "Unique identifier of the document", example = "60c72b2f5e7c2a1b3c9d8e7f")
+    private String documentId;
+
+    @Schema(description = "Operation components: positive number retains, negative number deletes, string inserts",
+            type = "array", example = "[12, \"new text\", -4, 30]")
+    private TextOperation operation;
+
+    @Schema(description = "Revision the operation is based on when sent by a client; revision produced by the operation when broadcast",
+            example = "42")
+    private long revision;
+
+    @Schema(description = "Client-generated identifier echoed back in the acknowledgement and broadcast",
+            example = "3f1c2a9e-7b1d-4c55-9a61-0f6c2b8d1e44")
+    private String operationId;
+
+    @Schema(description = "ID of the user who made the edit", example = "60c72b2f5e7c2a1b3c9d8e7a")
+    private String userId;
+
+    @Schema(description = "Timestamp of the edit in milliseconds since epoch", example = "1623456789000")
+    private long timestamp;
+}
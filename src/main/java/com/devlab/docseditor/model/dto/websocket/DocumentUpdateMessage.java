@@ -21,4 +21,7 @@ public class DocumentUpdateMessage {
 
     @Schema(description = "Timestamp of the update in milliseconds since epoch", example = "1623456789000")
     private long timestamp;
+
+    @Schema(description = "Revision of the document content", example = "42")
+    private long revision;
 }
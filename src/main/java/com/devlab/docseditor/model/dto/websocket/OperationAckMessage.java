@@ -0,0 +1,24 @@
+package com.devlab.docseditor.model.dto.websocket;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Acknowledgement sent to the author of an operation once the server has applied it")
+public class OperationAckMessage {
+    @Schema(description = "Unique identifier of the document", example = "60c72b2f5e7c2a1b3c9d8e7f")
+    private String documentId;
+
+    @Schema(description = "Identifier of the acknowledged operation", example = "3f1c2a9e-7b1d-4c55-9a61-0f6c2b8d1e44")
+    private String operationId;
+
+    @Schema(description = "Revision produced by the operation", example = "43")
+    private long revision;
+
+    @Schema(description = "Timestamp of the acknowledgement in milliseconds since epoch", example = "1623456789000")
+    private long timestamp;
+}
@@ -0,0 +1,26 @@
+package com.devlab.docseditor.model.dto.websocket;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Users who joined or left a document since the previous presence message")
+public class PresenceMessage {
+    @Schema(description = "Unique identifier of the document", example = "60c72b2f5e7c2a1b3c9d8e7f")
+    private String documentId;
+
+    @Schema(description = "IDs of the users who joined", example = "[\"60c72b2f5e7c2a1b3c9d8e7a\"]")
+    private List<String> joined;
+
+    @Schema(description = "IDs of the users who left or whose connection timed out", example = "[]")
+    private List<String> left;
+
+    @Schema(description = "Timestamp of the message in milliseconds since epoch", example = "1623456789000")
+    private long timestamp;
+}
@@ -0,0 +1,28 @@
+package com.devlab.docseditor.model.dto.websocket;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Sent to the author of a document request that no node could handle; the client may retry it")
+public class RequestRejectedMessage {
+    @Schema(description = "Unique identifier of the document", example = "60c72b2f5e7c2a1b3c9d8e7f")
+    private String documentId;
+
+    @Schema(description = "Kind of the rejected request", example = "operation")
+    private String request;
+
+    @Schema(description = "Identifier of the rejected operation, if the request was an operation",
+            example = "3f1c2a9e-7b1d-4c55-9a61-0f6c2b8d1e44")
+    private String operationId;
+
+    @Schema(description = "Why the request was rejected", example = "Owner of the document is unavailable")
+    private String reason;
+
+    @Schema(description = "Timestamp of the rejection in milliseconds since epoch", example = "1623456789000")
+    private long timestamp;
+}
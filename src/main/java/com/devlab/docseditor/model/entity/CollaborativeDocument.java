@@ -1,9 +1,12 @@
 package com.devlab.docseditor.model.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.*;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -25,6 +28,18 @@ public class CollaborativeDocument {
 
     private Map<String, String> accessRoles; // key: userId, value: "viewer" or "editor"
 
-    private List<DocumentVersion> versions; // embedded version history
+    private int versionCount; // number of versions in the document_versions collection
+    private int lastKeyframeVersion; // number of the latest version storing the full content
+    @JsonIgnore
+    private LocalDateTime lastVersionTime; // timestamp of the latest version; later versions never get an earlier one
+
+    @JsonIgnore
+    @Field("versions")
+    private List<DocumentVersion> legacyVersions; // history embedded before it moved to document_versions, migrated at startup or by the next write
+
+    private long revision; // number of operations applied since creation
+
+    @JsonIgnore
+    private byte[] crdtState; // encoded CRDT replica, only written by the CRDT merge engine
 
 }
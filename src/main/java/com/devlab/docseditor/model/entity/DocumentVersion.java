@@ -1,6 +1,8 @@
 package com.devlab.docseditor.model.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.*;
+import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -10,10 +12,31 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@Document(collection = "document_versions") // unique index on (documentId, versionNumber), see MongoIndexConfig
 public class DocumentVersion {
 
-    private String contentSnapshot;
+    @Id
+    @JsonIgnore
+    private String id; // documentId:versionNumber, so rewriting a version after a failed save is idempotent
+
+    @JsonIgnore
+    private String documentId;
+    private int versionNumber; // 1-based position in the history
+
+    private String contentSnapshot; // full content, only stored for keyframes
+    @JsonIgnore
+    private byte[] delta; // binary diff from the previous version, stored between keyframes
+
+    private int changeSize; // number of inserted and deleted characters
     private String editedByUserId;
     private LocalDateTime timestamp;
 
+    /**
+     * @return true if the full content is stored in this version
+     */
+    @JsonIgnore
+    public boolean isKeyframe() {
+        return contentSnapshot != null;
+    }
+
 }
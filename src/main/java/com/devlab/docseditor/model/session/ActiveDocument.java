@@ -0,0 +1,246 @@
+package com.devlab.docseditor.model.session;
+
+import com.devlab.docseditor.engine.DocumentReplica;
+import com.devlab.docseditor.engine.Rope;
+import com.devlab.docseditor.engine.ot.AppliedOperation;
+import com.devlab.docseditor.engine.ot.OperationHistory;
+import com.devlab.docseditor.engine.ot.TextOperation;
+
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live, authoritative text of a document that is currently being edited on this node.
+ * Every change produces a new revision and is recorded in the operation history so that
+ * concurrent client operations can be transformed onto the latest text.
+ * With the CRDT engine every change is also applied to a {@link DocumentReplica}, whose encoded updates
+ * let replicas of the document on other nodes merge without a central sequencer.
+ * The text is held as a {@link Rope}, so an edit costs time logarithmic in the document length and capturing
+ * the text for a reader or a write copies nothing. It becomes a string only for a full load sent to a client and
+ * for the write-behind flush, never on the edit path.
+ * All mutations are serialized on the instance. Callers that apply a change and publish it in the same order hold
+ * the {@link #getSequenceLock() sequence lock} around both; it is a lock rather than a monitor because publishing
+ * may reach Redis, and a virtual thread blocked on I/O inside a monitor pins its carrier.
+ */
+public class ActiveDocument {
+
+    private final String documentId;
+    private final OperationHistory history;
+    private final DocumentReplica replica;
+    private Rope content;
+    /** Revision last written to the database; the document is dirty while the current revision is ahead of it. */
+    private long persistedRevision;
+    private String lastEditorId;
+    /**
+     * Held while the document is written to the database, so that writes happen one at a time; a lock rather
+     * than a monitor so that a virtual thread blocked on the write does not pin its carrier.
+     */
+    private final Lock writeLock = new ReentrantLock();
+    /** Held while a change is applied and published, so that changes are published in the order they were made. */
+    private final Lock sequenceLock = new ReentrantLock();
+    /** Set once the document is written and dropped from the registry; guarded by the sequence lock. */
+    private boolean unloaded;
+
+    public ActiveDocument(String documentId, String content, long revision, int historySize) {
+        this(documentId, content, revision, historySize, null);
+    }
+
+    /**
+     * @param replica the CRDT replica of the document, or null when edits are only sequenced on this node;
+     *                its text must equal the content
+     */
+    public ActiveDocument(String documentId, String content, long revision, int historySize, DocumentReplica replica) {
+        this.documentId = documentId;
+        this.content = Rope.of(content);
+        this.history = new OperationHistory(historySize, revision);
+        this.replica = replica;
+        this.persistedRevision = revision;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public Lock getWriteLock() {
+        return writeLock;
+    }
+
+    public Lock getSequenceLock() {
+        return sequenceLock;
+    }
+
+    /**
+     * @return true if the document was dropped from the registry and must not be changed; callers hold the
+     *         sequence lock
+     */
+    public boolean isUnloaded() {
+        return unloaded;
+    }
+
+    /**
+     * Marks the document as dropped from the registry; callers hold the sequence lock
+     */
+    public void markUnloaded() {
+        unloaded = true;
+    }
+
+    public synchronized long getRevision() {
+        return history.getRevision();
+    }
+
+    /**
+     * @return the current content together with its revision
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(content, history.getRevision());
+    }
+
+    /**
+     * Applies a client operation, transforming it against everything applied since its base revision
+     * @param baseRevision the revision the client created the operation against
+     * @param operation the client operation
+     * @return the operation as applied and the new revision
+     * @throws com.devlab.docseditor.exception.StaleRevisionException if the base revision is no longer in the history
+     * @throws IllegalArgumentException if the operation does not fit the document at its base revision
+     */
+    public synchronized AppliedOperation applyClientOperation(long baseRevision, TextOperation operation) {
+        TextOperation rebased = history.rebase(baseRevision, operation);
+        content = rebased.apply(content);
+        return new AppliedOperation(rebased, history.record(rebased), applyToReplica(rebased));
+    }
+
+    /**
+     * Replaces the live text, used when a client sends the whole content.
+     * The replacement is recorded as an operation so pending client operations still transform cleanly.
+     * @param newContent the new content
+     * @return the replacing operation and the new revision
+     */
+    public synchronized AppliedOperation replaceContent(String newContent) {
+        String replacement = newContent != null ? newContent : "";
+        TextOperation operation = new TextOperation()
+                .delete(content.length())
+                .insert(replacement);
+        content = Rope.of(replacement);
+        return new AppliedOperation(operation, history.record(operation), applyToReplica(operation));
+    }
+
+    /**
+     * Merges an update produced by a replica of this document on another node
+     * @param update the encoded CRDT update
+     * @return the resulting change of the text and the new revision, or null if the text did not change
+     * @throws IllegalStateException if the document has no CRDT replica
+     * @throws IllegalArgumentException if the update cannot be decoded
+     */
+    public synchronized AppliedOperation applyRemoteUpdate(byte[] update) {
+        if (replica == null) {
+            throw new IllegalStateException("Document " + documentId + " is not backed by a CRDT replica");
+        }
+        TextOperation operation = replica.applyRemote(update);
+        if (operation == null) {
+            return null;
+        }
+        content = operation.apply(content);
+        return new AppliedOperation(operation, history.record(operation), null);
+    }
+
+    /**
+     * Remembers who made the latest edit, used to attribute the next persisted version
+     * @param userId the user ID
+     */
+    public synchronized void markEditedBy(String userId) {
+        this.lastEditorId = userId;
+    }
+
+    /**
+     * @return true if the document changed since the last write to the database
+     */
+    public synchronized boolean isDirty() {
+        return history.getRevision() != persistedRevision;
+    }
+
+    /**
+     * @return the state to write to the database, or null if nothing changed since the last write
+     */
+    public synchronized PendingWrite pendingWrite() {
+        long revision = history.getRevision();
+        if (revision == persistedRevision) {
+            return null;
+        }
+        return new PendingWrite(content, revision, lastEditorId, encodeReplicaState());
+    }
+
+    /**
+     * Records that the state up to a revision has been written to the database
+     * @param revision the written revision
+     */
+    public synchronized void markPersisted(long revision) {
+        if (revision > persistedRevision) {
+            persistedRevision = revision;
+        }
+    }
+
+    /**
+     * @return true if the document is backed by a CRDT replica
+     */
+    public boolean isReplicated() {
+        return replica != null;
+    }
+
+    /**
+     * @return the complete encoded replica state for persistence, or null without a replica
+     */
+    public synchronized byte[] encodeReplicaState() {
+        return replica != null ? replica.encodeState() : null;
+    }
+
+    /**
+     * @return the encoded state vector of the replica, or null without a replica
+     */
+    public synchronized byte[] encodeStateVector() {
+        return replica != null ? replica.encodeStateVector() : null;
+    }
+
+    /**
+     * Encodes what a replica on another node is missing
+     * @param stateVector the encoded state vector of the other replica
+     * @return the encoded update, or null without a replica
+     */
+    public synchronized byte[] encodeUpdateSince(byte[] stateVector) {
+        return replica != null ? replica.encodeUpdateSince(stateVector) : null;
+    }
+
+    /**
+     * Forgets the replicas on other nodes that are not listed, so they no longer hold back garbage collection
+     * @param replicas the IDs of the replicas that may still edit the document
+     */
+    public synchronized void retainPeers(Set<Integer> replicas) {
+        if (replica != null) {
+            replica.retainPeers(replicas);
+        }
+    }
+
+    private byte[] applyToReplica(TextOperation operation) {
+        return replica != null ? replica.applyLocal(operation) : null;
+    }
+
+    /**
+     * Consistent view of the document content at a revision.
+     *
+     * @param content the content, unaffected by later edits
+     * @param revision the revision of the content
+     */
+    public record Snapshot(Rope content, long revision) {
+    }
+
+    /**
+     * Content of a dirty document captured for the write-behind flush.
+     *
+     * @param content the content, unaffected by later edits
+     * @param revision the revision of the content
+     * @param lastEditorId the ID of the user who made the latest edit, or null if all edits came from other nodes
+     * @param crdtState the encoded CRDT replica, or null without a replica
+     */
+    public record PendingWrite(Rope content, long revision, String lastEditorId, byte[] crdtState) {
+    }
+}
@@ -0,0 +1,11 @@
+package com.devlab.docseditor.model.session;
+
+import java.util.Set;
+
+/**
+ * Event published when nodes joined or left the cluster.
+ *
+ * @param nodes the IDs of the live nodes
+ */
+public record ClusterMembershipChanged(Set<String> nodes) {
+}
@@ -0,0 +1,10 @@
+package com.devlab.docseditor.model.session;
+
+/**
+ * Event published when the role of a user on a document changes.
+ *
+ * @param documentId the document ID
+ * @param userId the ID of the user whose role changed
+ */
+public record DocumentAccessChanged(String documentId, String userId) {
+}
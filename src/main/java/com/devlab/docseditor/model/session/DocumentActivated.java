@@ -0,0 +1,9 @@
+package com.devlab.docseditor.model.session;
+
+/**
+ * Event published when a document is loaded into the active registry of this node.
+ *
+ * @param documentId the document ID
+ */
+public record DocumentActivated(String documentId) {
+}
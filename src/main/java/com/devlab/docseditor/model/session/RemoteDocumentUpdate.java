@@ -0,0 +1,10 @@
+package com.devlab.docseditor.model.session;
+
+/**
+ * Event published when a CRDT update of a document arrives from another node.
+ *
+ * @param documentId the document ID
+ * @param update the encoded CRDT update
+ */
+public record RemoteDocumentUpdate(String documentId, byte[] update) {
+}
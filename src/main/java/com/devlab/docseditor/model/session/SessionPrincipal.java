@@ -0,0 +1,68 @@
+package com.devlab.docseditor.model.session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User bound to a WebSocket session when it connects, so that frames do not need a database lookup to find
+ * the user ID. Roles on documents are cached as they are first checked and evicted when access changes.
+ */
+public class SessionPrincipal {
+
+    public static final String OWNER = "owner";
+    public static final String EDITOR = "editor";
+    /** Cached role of a user without access to a document. */
+    public static final String NONE = "";
+
+    private final String userId;
+    private final String username;
+    private final Map<String, String> documentRoles = new ConcurrentHashMap<>();
+
+    public SessionPrincipal(String userId, String username) {
+        this.userId = userId;
+        this.username = username;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the username, which is also the STOMP principal name
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @param documentId the document ID
+     * @return the cached role on the document, {@link #NONE} without access, or null if not cached
+     */
+    public String getRole(String documentId) {
+        return documentRoles.get(documentId);
+    }
+
+    public void cacheRole(String documentId, String role) {
+        documentRoles.put(documentId, role != null ? role : NONE);
+    }
+
+    public void evictRole(String documentId) {
+        documentRoles.remove(documentId);
+    }
+
+    /**
+     * @param role a role returned by {@link #getRole}
+     * @return true if the role allows editing
+     */
+    public static boolean canEdit(String role) {
+        return OWNER.equals(role) || EDITOR.equals(role);
+    }
+
+    /**
+     * @param role a role returned by {@link #getRole}
+     * @return true if the role allows reading
+     */
+    public static boolean canRead(String role) {
+        return role != null && !NONE.equals(role);
+    }
+}
@@ -0,0 +1,78 @@
+package com.devlab.docseditor.repository;
+
+import com.devlab.docseditor.model.dto.response.DocumentVersionSummary;
+import com.devlab.docseditor.model.entity.DocumentVersion;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+@Repository
+public interface DocumentVersionRepository extends MongoRepository<DocumentVersion, String> {
+
+    /**
+     * Find a page of the versions of a document
+     * @param documentId the document ID
+     * @param pageable the page and its sort order
+     * @return the page of versions
+     */
+    Page<DocumentVersion> findByDocumentId(String documentId, Pageable pageable);
+
+    /**
+     * Stream the metadata of versions before a cursor, newest first; the content fields are not fetched
+     * @param documentId the document ID
+     * @param beforeVersion only versions with a lower number are returned
+     * @param limit the maximum number of versions
+     * @return stream of version metadata, to be closed by the caller
+     */
+    Stream<DocumentVersionSummary> findByDocumentIdAndVersionNumberLessThanOrderByVersionNumberDesc(
+            String documentId, int beforeVersion, Limit limit);
+
+    /**
+     * Find a range of versions of a document, oldest first
+     * @param documentId the document ID
+     * @param fromVersion the first version number, inclusive
+     * @param toVersion the last version number, inclusive
+     * @return list of versions in the range
+     */
+    List<DocumentVersion> findByDocumentIdAndVersionNumberGreaterThanEqualAndVersionNumberLessThanEqualOrderByVersionNumberAsc(
+            String documentId, int fromVersion, int toVersion);
+
+    /**
+     * Find a single version of a document
+     * @param documentId the document ID
+     * @param versionNumber the version number
+     * @return the version, or empty if it does not exist
+     */
+    Optional<DocumentVersion> findByDocumentIdAndVersionNumber(String documentId, int versionNumber);
+
+    /**
+     * Find the latest keyframe at or before a version, the starting point to reconstruct that version
+     * @param documentId the document ID
+     * @param versionNumber the version number
+     * @return the keyframe, or empty if there is none
+     */
+    Optional<DocumentVersion> findFirstByDocumentIdAndVersionNumberLessThanEqualAndContentSnapshotIsNotNullOrderByVersionNumberDesc(
+            String documentId, int versionNumber);
+
+    /**
+     * Find the metadata of the version that was current at a time, answered from the (documentId, timestamp, versionNumber) index
+     * @param documentId the document ID
+     * @param time the time
+     * @return the latest version saved at or before the time, or empty if the first version is later
+     */
+    Optional<DocumentVersionSummary> findFirstByDocumentIdAndTimestampLessThanEqualOrderByTimestampDescVersionNumberDesc(
+            String documentId, LocalDateTime time);
+
+    /**
+     * Delete the whole history of a document
+     * @param documentId the document ID
+     */
+    void deleteByDocumentId(String documentId);
+}
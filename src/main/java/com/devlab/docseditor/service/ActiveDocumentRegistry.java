@@ -0,0 +1,361 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.engine.DocumentReplica;
+import com.devlab.docseditor.engine.MergeEngineType;
+import com.devlab.docseditor.engine.crdt.SequenceCrdt;
+import com.devlab.docseditor.engine.ot.TextOperation;
+import com.devlab.docseditor.model.entity.CollaborativeDocument;
+import com.devlab.docseditor.model.session.ActiveDocument;
+import com.devlab.docseditor.model.session.ClusterMembershipChanged;
+import com.devlab.docseditor.model.session.DocumentActivated;
+import com.devlab.docseditor.utils.VirtualThreads;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory store of the live text of documents with connected editors.
+ * Edits only change the in-memory document; dirty documents are written to the database by a
+ * write-behind flush that runs every {@code application.collaboration.flush-interval} milliseconds,
+ * so each document is written at most once per interval no matter how many edits it receives.
+ * A document is also flushed when its last editor leaves and when the application shuts down.
+ * Each flush first refreshes the cached copy in Redis and then writes the database, so edits cost nothing
+ * proportional to the document size until a flush turns the text into a string once.
+ * The periodic flush hands each dirty document to a writer thread, on virtual threads when
+ * {@code spring.threads.virtual.enabled} is set on Java 21 or later, so a slow write only delays its own document;
+ * writes of one document never overlap.
+ * <p>
+ * The number of live documents is the {@code documents.active} gauge; loads are timed in {@code documents.load}
+ * and database writes in {@code documents.flush}, tagged with their outcome.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ActiveDocumentRegistry {
+
+    private final DocumentService documentService;
+    private final CacheService cacheService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ClusterMembership clusterMembership;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${application.collaboration.history-size:1000}")
+    private int historySize;
+
+    @Value("${application.collaboration.engine:ot}")
+    private String engine;
+
+    private final Map<String, ActiveDocument> documents = new ConcurrentHashMap<>();
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${application.collaboration.flush-threads:4}")
+    private int flushThreads;
+
+    /** IDs of the documents handed to the writer and not written yet. */
+    private final Set<String> flushing = ConcurrentHashMap.newKeySet();
+
+    private TaskExecutor writer;
+
+    private Timer loads;
+    private Timer flushes;
+    private Timer failedFlushes;
+
+    @PostConstruct
+    void init() {
+        meterRegistry.gaugeMapSize("documents.active", Tags.empty(), documents);
+        loads = Timer.builder("documents.load")
+                .description("Time loading a document from the cache or the database into the registry")
+                .register(meterRegistry);
+        flushes = flushTimer("success");
+        failedFlushes = flushTimer("failure");
+
+        if (VirtualThreads.isEnabled(virtualThreads)) {
+            writer = VirtualThreads.perTaskExecutor("document-writer-");
+        } else {
+            ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+            pool.setCorePoolSize(flushThreads);
+            pool.setMaxPoolSize(flushThreads);
+            pool.setThreadNamePrefix("document-writer-");
+            pool.setWaitForTasksToCompleteOnShutdown(true);
+            pool.initialize();
+            writer = pool;
+        }
+    }
+
+    /**
+     * Gets the live document, loading it from the cache or the database on first access
+     * @param documentId the document ID
+     * @return the live document
+     */
+    public ActiveDocument getOrLoad(String documentId) {
+        ActiveDocument activeDocument = documents.get(documentId);
+        if (activeDocument != null) {
+            return activeDocument;
+        }
+
+        ActiveDocument loaded = loads.record(() -> load(documentId));
+        ActiveDocument existing = documents.putIfAbsent(documentId, loaded);
+        if (existing != null) {
+            return existing;
+        }
+        log.debug("Loaded document {} into active registry", documentId);
+        eventPublisher.publishEvent(new DocumentActivated(documentId));
+        return loaded;
+    }
+
+    private ActiveDocument load(String documentId) {
+        CollaborativeDocument document = documentService.getDocumentById(documentId);
+        String content = cacheService.getCachedDocumentContent(documentId);
+        if (content == null) {
+            content = document.getContent();
+        }
+
+        DocumentReplica replica = null;
+        if (MergeEngineType.fromName(engine) == MergeEngineType.CRDT) {
+            replica = loadReplica(document, content);
+            content = replica.getText();
+        }
+        return new ActiveDocument(documentId, content, document.getRevision(), historySize, replica);
+    }
+
+    public int getReplicaId() {
+        return clusterMembership.getReplicaId();
+    }
+
+    private DocumentReplica loadReplica(CollaborativeDocument document, String content) {
+        SequenceCrdt replica = null;
+        if (document.getCrdtState() != null) {
+            try {
+                replica = SequenceCrdt.decode(getReplicaId(), document.getCrdtState());
+            } catch (IllegalArgumentException e) {
+                log.warn("Discarding unreadable CRDT state of document {}: {}", document.getId(), e.getMessage());
+            }
+        }
+        if (replica == null) {
+            return SequenceCrdt.fromText(getReplicaId(), content);
+        }
+
+        // Replicas on other nodes bring a relayed replica up to date; diffing against the cache there would
+        // insert text they already hold a second time
+        if (clusterMembership.isClustered()) {
+            return replica;
+        }
+
+        // The cached content may be ahead of the persisted state
+        String replicaText = replica.getText();
+        if (!replicaText.equals(content)) {
+            replica.applyLocal(TextOperation.diff(replicaText, content));
+        }
+        return replica;
+    }
+
+    /**
+     * Finds a live document without loading it
+     * @param documentId the document ID
+     * @return the live document, or empty if it is not active on this node
+     */
+    public Optional<ActiveDocument> find(String documentId) {
+        return Optional.ofNullable(documents.get(documentId));
+    }
+
+    /**
+     * @return the IDs of the documents active on this node
+     */
+    public Set<String> getDocumentIds() {
+        return Set.copyOf(documents.keySet());
+    }
+
+    /**
+     * Gets the live document with its sequence lock held, loading it on first access. The caller applies and
+     * publishes its change and then releases the lock.
+     * @param documentId the document ID
+     * @return the live document, locked by the calling thread
+     */
+    public ActiveDocument lockForEdit(String documentId) {
+        while (true) {
+            ActiveDocument activeDocument = getOrLoad(documentId);
+            activeDocument.getSequenceLock().lock();
+            if (!activeDocument.isUnloaded()) {
+                return activeDocument;
+            }
+            // Unloaded while we waited for the lock; its changes are written, so the next load sees them
+            activeDocument.getSequenceLock().unlock();
+        }
+    }
+
+    /**
+     * Drops a document from the registry, writing its pending changes first. The document stays in the registry
+     * until they are written, so a concurrent load cannot read older content, and it is kept if the write fails.
+     * @param documentId the document ID
+     */
+    public void remove(String documentId) {
+        ActiveDocument activeDocument = documents.get(documentId);
+        if (activeDocument == null) {
+            return;
+        }
+        // No edits between the final write and the removal; editors waiting for the lock see the unload
+        activeDocument.getSequenceLock().lock();
+        try {
+            if (activeDocument.isUnloaded()) {
+                return;
+            }
+            activeDocument.getWriteLock().lock();
+            try {
+                if (!flush(activeDocument)) {
+                    log.warn("Keeping document {} in active registry until its changes are written", documentId);
+                    return;
+                }
+                activeDocument.markUnloaded();
+                documents.remove(documentId, activeDocument);
+            } finally {
+                activeDocument.getWriteLock().unlock();
+            }
+            log.debug("Removed document {} from active registry", documentId);
+        } finally {
+            activeDocument.getSequenceLock().unlock();
+        }
+    }
+
+    /**
+     * Writes and unloads the documents this node no longer owns, so their new owner loads the latest content
+     * @param event the membership change
+     */
+    @EventListener
+    public void handOff(ClusterMembershipChanged event) {
+        if (!clusterMembership.isRoutedByOwner()) {
+            return;
+        }
+        for (String documentId : getDocumentIds()) {
+            if (!clusterMembership.isOwner(documentId)) {
+                remove(documentId);
+            }
+        }
+    }
+
+    /**
+     * Stops waiting for the CRDT replicas of nodes that left, so tombstones they never acknowledged can be
+     * collected; a node that comes back syncs its documents and is tracked again
+     * @param event the membership change
+     */
+    @EventListener
+    public void forgetDepartedReplicas(ClusterMembershipChanged event) {
+        if (MergeEngineType.fromName(engine) != MergeEngineType.CRDT) {
+            return;
+        }
+        Set<Integer> liveReplicas = event.nodes().stream()
+                .map(ClusterMembership::replicaIdOf)
+                .collect(Collectors.toSet());
+        for (ActiveDocument activeDocument : documents.values()) {
+            activeDocument.retainPeers(liveReplicas);
+        }
+    }
+
+    /**
+     * Writes every dirty document to the database; coalesces all edits since the previous run into one write
+     */
+    @Scheduled(fixedDelayString = "${application.collaboration.flush-interval:5000}")
+    public void flushAll() {
+        for (ActiveDocument activeDocument : documents.values()) {
+            String documentId = activeDocument.getDocumentId();
+            // A document still being written from the previous run is picked up by the next one
+            if (activeDocument.isDirty() && flushing.add(documentId)) {
+                try {
+                    writer.execute(() -> {
+                        try {
+                            flush(activeDocument);
+                        } finally {
+                            flushing.remove(documentId);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    flushing.remove(documentId);
+                    log.error("Error scheduling write of document {}", documentId, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes pending changes of all documents before the application stops
+     */
+    @PreDestroy
+    public void shutdown() {
+        log.info("Flushing {} active documents before shutdown", documents.size());
+        for (ActiveDocument activeDocument : documents.values()) {
+            flush(activeDocument);
+        }
+        if (writer instanceof ThreadPoolTaskExecutor pool) {
+            pool.shutdown();
+        }
+    }
+
+    private Timer flushTimer(String outcome) {
+        return Timer.builder("documents.flush")
+                .description("Time writing the pending changes of a document to the database")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return true if the document has no pending changes left, false if writing them failed
+     */
+    private boolean flush(ActiveDocument activeDocument) {
+        activeDocument.getWriteLock().lock();
+        try {
+            ActiveDocument.PendingWrite pendingWrite = activeDocument.pendingWrite();
+            if (pendingWrite == null) {
+                return true;
+            }
+            String documentId = activeDocument.getDocumentId();
+            String content = pendingWrite.content().toString();
+            try {
+                cacheService.cacheDocumentContent(documentId, content);
+            } catch (Exception e) {
+                log.error("Error caching document {}", documentId, e);
+                // An older cached copy would win over the database write below when the document is loaded
+                try {
+                    cacheService.invalidateDocumentCache(documentId);
+                } catch (Exception invalidation) {
+                    log.error("Error invalidating cached document {}", documentId, invalidation);
+                }
+            }
+            long start = System.nanoTime();
+            try {
+                documentService.saveLiveContent(documentId, content, pendingWrite.lastEditorId(),
+                        pendingWrite.revision(), pendingWrite.crdtState());
+                activeDocument.markPersisted(pendingWrite.revision());
+                flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                log.debug("Saved document {} at revision {} to database", documentId, pendingWrite.revision());
+                return true;
+            } catch (Exception e) {
+                failedFlushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                // The document stays dirty and is retried on the next flush; the cache still holds the content
+                log.error("Error saving document {} to database", documentId, e);
+                return false;
+            }
+        } finally {
+            activeDocument.getWriteLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.model.dto.websocket.CursorMessage;
+import com.devlab.docseditor.model.session.SessionPrincipal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ephemeral awareness of where users are in a document: cursor positions and selections.
+ * Cursors are kept in memory only, latest value per user: a move replaces the user's pending cursor instead of
+ * queueing behind it. Every {@code application.awareness.broadcast-interval} milliseconds the pending cursors of
+ * each document are sent as one frame on {@code /topic/document.{id}.cursors}, which caps every user at one update
+ * per interval, and moves made while a frame is still being sent simply replace each other.
+ * Cursors are handled on the node the user is connected to and never touch the database or the content cache;
+ * only sessions that joined the document, which requires read access to it, may send them.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AwarenessService {
+
+    private final PresenceService presenceService;
+    private final DocumentTopicRelay documentTopicRelay;
+
+    /**
+     * Latest cursor not broadcast yet, by user ID, by document ID. The cursors of a document are only changed
+     * inside {@code compute} on this map, so a broadcast that removes them never misses a move.
+     */
+    private final Map<String, Map<String, CursorMessage>> pendingCursors = new ConcurrentHashMap<>();
+
+    /**
+     * Records the latest cursor of a user, replacing a pending one
+     * @param sessionId the WebSocket session ID
+     * @param principal the user
+     * @param message the cursor
+     */
+    public void moveCursor(String sessionId, SessionPrincipal principal, CursorMessage message) {
+        String documentId = message.getDocumentId();
+        if (documentId == null || !presenceService.hasJoined(sessionId, documentId)) {
+            log.debug("Ignoring cursor of user {} outside a joined document {}", principal.getUserId(), documentId);
+            return;
+        }
+        message.setUserId(principal.getUserId());
+        pendingCursors.compute(documentId, (id, cursors) -> {
+            Map<String, CursorMessage> pending = cursors != null ? cursors : new HashMap<>();
+            pending.put(principal.getUserId(), message);
+            return pending;
+        });
+    }
+
+    /**
+     * Sends the cursors that moved since the previous call, one frame per document
+     */
+    @Scheduled(fixedDelayString = "${application.awareness.broadcast-interval:50}")
+    public void broadcast() {
+        for (String documentId : pendingCursors.keySet()) {
+            Map<String, CursorMessage> cursors = pendingCursors.remove(documentId);
+            if (cursors == null || cursors.isEmpty()) {
+                continue;
+            }
+            // Taken out of the map, so moves arriving now go into the next frame
+            List<CursorMessage> frame = new ArrayList<>(cursors.values());
+            try {
+                documentTopicRelay.send(documentId, "/topic/document." + documentId + ".cursors", frame);
+            } catch (Exception e) {
+                log.error("Error broadcasting cursors of document {}", documentId, e);
+            }
+        }
+    }
+}
@@ -1,23 +1,111 @@
 package com.devlab.docseditor.service;
 
+import com.devlab.docseditor.utils.ContentCodec;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * Two-tier cache of document content: an in-process tier (Caffeine, W-TinyLFU eviction) in front of Redis.
+ * The local tier is bounded by the memory its content takes, {@code application.cache.local.maximum-weight} bytes
+ * counted as two per character, so a few large documents cannot crowd out the heap the way a count of entries
+ * would allow.
+ * In a cluster, every write is pipelined with a publish on an invalidation channel of its key, and a node listens
+ * on the channel of a key only while it holds the key locally, so invalidations only reach nodes that need them.
+ * Local entries also expire after {@code application.cache.local.expire-after-write} milliseconds.
+ * Content is stored in Redis as bytes encoded by the {@link ContentCodec}.
+ * <p>
+ * The local tier reports its hits, misses and evictions as the {@code cache.*} meters of the
+ * {@code document-content} cache; reads that reach Redis are counted in {@code cache.redis.gets} and Redis
+ * round trips are timed in {@code cache.redis.commands}.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class CacheService {
+public class CacheService implements MessageListener {
 
     private final RedisTemplate<String, Object> redisTemplate;
-    
+    private final RedisTemplate<String, byte[]> documentContentRedisTemplate;
+    private final ContentCodec contentCodec;
+    private final ClusterMembership clusterMembership;
+    private final ObjectProvider<RedisMessageListenerContainer> listenerContainer;
+    private final MeterRegistry meterRegistry;
+
     private static final String DOCUMENT_CACHE_PREFIX = "document:";
-    private static final String ACTIVE_USERS_PREFIX = "active_users:";
+    private static final String INVALIDATION_PREFIX = "near-cache-invalidate:";
     private static final long DEFAULT_CACHE_TTL = 3600; // 1 hour in seconds
-    
+
+    @Value("${application.cache.local.maximum-weight:67108864}")
+    private long localMaximumWeight;
+
+    @Value("${application.cache.local.expire-after-write:60000}")
+    private long localExpireAfterWriteMillis;
+
+    /** Local tier by Redis key. */
+    private Cache<String, Object> local;
+
+    /**
+     * Keys held locally or being loaded, with a counter bumped by each invalidation from another node.
+     * A key's local entry and its invalidation subscription only change inside {@code compute} on its entry here,
+     * so a key is never held locally without listening for its invalidations.
+     */
+    private final Map<String, AtomicLong> watchedKeys = new ConcurrentHashMap<>();
+
+    private Timer redisGets;
+    private Timer redisWrites;
+    private Counter redisHits;
+    private Counter redisMisses;
+
+    @PostConstruct
+    void init() {
+        local = Caffeine.newBuilder()
+                .maximumWeight(localMaximumWeight)
+                .weigher((String key, Object value) -> weigh(key, value))
+                .expireAfterWrite(Duration.ofMillis(localExpireAfterWriteMillis))
+                .removalListener((String key, Object value, RemovalCause cause) -> {
+                    if (cause != RemovalCause.REPLACED) {
+                        unwatch(key);
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, local, "document-content");
+
+        redisGets = redisTimer("get");
+        redisWrites = redisTimer("write");
+        redisHits = redisGetCounter("hit");
+        redisMisses = redisGetCounter("miss");
+    }
+
     /**
      * Caches document content
      * @param documentId the document ID
@@ -25,10 +113,11 @@ public class CacheService {
      */
     public void cacheDocumentContent(String documentId, String content) {
         String key = DOCUMENT_CACHE_PREFIX + documentId;
-        redisTemplate.opsForValue().set(key, content, DEFAULT_CACHE_TTL, TimeUnit.SECONDS);
+        write(List.of(key), connection -> setContent(connection, key, content));
+        putLocal(key, content);
         log.debug("Cached content for document: {}", documentId);
     }
-    
+
     /**
      * Gets cached document content
      * @param documentId the document ID
@@ -36,50 +125,162 @@ public class CacheService {
      */
     public String getCachedDocumentContent(String documentId) {
         String key = DOCUMENT_CACHE_PREFIX + documentId;
-        Object cachedContent = redisTemplate.opsForValue().get(key);
+        Object cachedContent = read(key, () -> contentCodec.decode(documentContentRedisTemplate.opsForValue().get(key)));
         return cachedContent != null ? cachedContent.toString() : null;
     }
-    
+
     /**
      * Invalidates cached document content
      * @param documentId the document ID
      */
     public void invalidateDocumentCache(String documentId) {
         String key = DOCUMENT_CACHE_PREFIX + documentId;
-        redisTemplate.delete(key);
+        write(List.of(key), connection -> connection.keyCommands().del(rawKey(key)));
+        local.invalidate(key);
         log.debug("Invalidated cache for document: {}", documentId);
     }
-    
+
     /**
-     * Adds a user to the list of active users for a document
-     * @param documentId the document ID
-     * @param userId the user ID
+     * Drops a key another node wrote
      */
-    public void addActiveUser(String documentId, String userId) {
-        String key = ACTIVE_USERS_PREFIX + documentId;
-        redisTemplate.opsForSet().add(key, userId);
-        redisTemplate.expire(key, DEFAULT_CACHE_TTL, TimeUnit.SECONDS);
-        log.debug("Added user {} to active users for document: {}", userId, documentId);
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (clusterMembership.getNodeId().equals(new String(message.getBody(), StandardCharsets.UTF_8))) {
+            return;
+        }
+        String key = new String(message.getChannel(), StandardCharsets.UTF_8).substring(INVALIDATION_PREFIX.length());
+        watchedKeys.computeIfPresent(key, (k, generation) -> {
+            generation.incrementAndGet();
+            local.invalidate(k);
+            return generation;
+        });
     }
-    
+
     /**
-     * Removes a user from the list of active users for a document
-     * @param documentId the document ID
-     * @param userId the user ID
+     * Reads through the local tier
+     */
+    private Object read(String key, Supplier<Object> loader) {
+        Object cached = local.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        AtomicLong generation = watch(key);
+        long seen = generation.get();
+        Object value = null;
+        try {
+            value = redisGets.record(loader);
+            (value != null ? redisHits : redisMisses).increment();
+        } finally {
+            cacheLoaded(key, generation, seen, value);
+        }
+        return value;
+    }
+
+    /**
+     * Keeps a value read from Redis only if no invalidation arrived since {@code seen} was taken,
+     * otherwise it may already be outdated. Stops listening for invalidations of the key if nothing is kept,
+     * so misses do not leave subscriptions behind.
      */
-    public void removeActiveUser(String documentId, String userId) {
-        String key = ACTIVE_USERS_PREFIX + documentId;
-        redisTemplate.opsForSet().remove(key, userId);
-        log.debug("Removed user {} from active users for document: {}", userId, documentId);
+    private void cacheLoaded(String key, AtomicLong generation, long seen, Object value) {
+        watchedKeys.computeIfPresent(key, (k, current) -> {
+            if (current != generation) {
+                // Evicted while loading and watched again since; invalidations in between were missed
+                return current;
+            }
+            if (value != null && generation.get() == seen) {
+                local.put(k, value);
+                return current;
+            }
+            return release(k, current);
+        });
     }
-    
+
     /**
-     * Gets the list of active users for a document
-     * @param documentId the document ID
-     * @return the set of active user IDs
+     * @return the approximate number of bytes an entry keeps on the heap, UTF-16 for the key and string values
+     */
+    private static int weigh(String key, Object value) {
+        long chars = key.length() + (value instanceof CharSequence text ? text.length() : 0);
+        return (int) Math.min(Integer.MAX_VALUE, 2 * chars);
+    }
+
+    private void putLocal(String key, Object value) {
+        watchedKeys.compute(key, (k, generation) -> {
+            local.put(k, value);
+            return generation != null ? generation : subscribe(k);
+        });
+    }
+
+    /**
+     * Runs Redis commands in one pipeline, followed by the invalidation of the written keys on other nodes
+     * when clustered
+     */
+    private void write(List<String> keys, Consumer<RedisConnection> commands) {
+        boolean clustered = clusterMembership.isClustered();
+        byte[] origin = clusterMembership.getNodeId().getBytes(StandardCharsets.UTF_8);
+        redisWrites.record(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            commands.accept(connection);
+            if (clustered) {
+                for (String key : keys) {
+                    connection.publish((INVALIDATION_PREFIX + key).getBytes(StandardCharsets.UTF_8), origin);
+                }
+            }
+            return null;
+        }));
+    }
+
+    private void setContent(RedisConnection connection, String key, String content) {
+        connection.stringCommands().set(rawKey(key), contentCodec.encode(content),
+                Expiration.seconds(DEFAULT_CACHE_TTL), RedisStringCommands.SetOption.upsert());
+    }
+
+    private AtomicLong watch(String key) {
+        return watchedKeys.computeIfAbsent(key, this::subscribe);
+    }
+
+    /**
+     * Stops listening for invalidations of a key that is no longer held locally
      */
-    public java.util.Set<Object> getActiveUsers(String documentId) {
-        String key = ACTIVE_USERS_PREFIX + documentId;
-        return redisTemplate.opsForSet().members(key);
+    private void unwatch(String key) {
+        watchedKeys.computeIfPresent(key, this::release);
+    }
+
+    private AtomicLong subscribe(String key) {
+        if (clusterMembership.isClustered()) {
+            listenerContainer.getObject().addMessageListener(this, new ChannelTopic(INVALIDATION_PREFIX + key));
+        }
+        return new AtomicLong();
+    }
+
+    /**
+     * @return null, removing the key from the watched keys, unless it is held locally again
+     */
+    private AtomicLong release(String key, AtomicLong generation) {
+        if (local.asMap().containsKey(key)) {
+            return generation;
+        }
+        if (clusterMembership.isClustered()) {
+            listenerContainer.getObject().removeMessageListener(this, new ChannelTopic(INVALIDATION_PREFIX + key));
+        }
+        return null;
+    }
+
+    private Timer redisTimer(String operation) {
+        return Timer.builder("cache.redis.commands")
+                .description("Round trips to Redis for document content, including encoding and decoding")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Counter redisGetCounter(String result) {
+        return Counter.builder("cache.redis.gets")
+                .description("Document content reads that missed the local tier and went to Redis")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] rawKey(String key) {
+        return ((RedisSerializer<String>) redisTemplate.getKeySerializer()).serialize(key);
     }
-}
\ No newline at end of file
+}
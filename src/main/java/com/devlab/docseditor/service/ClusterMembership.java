@@ -0,0 +1,151 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.engine.MergeEngineType;
+import com.devlab.docseditor.model.session.ClusterMembershipChanged;
+import com.devlab.docseditor.utils.ConsistentHashRing;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Identity of this node and the set of live nodes of the cluster.
+ * When documents are relayed through Redis ({@code application.websocket.relay: redis}), every node writes a
+ * heartbeat into a sorted set scored by time; nodes whose heartbeat is older than three intervals are dropped.
+ * The live nodes form a consistent-hash ring over document IDs that decides which node owns a document.
+ * Without the relay this node is the only member and owns every document.
+ * <p>
+ * Ownership matters for the OT engine, which needs a single node to sequence the operations of a document;
+ * CRDT replicas merge on any node, so with that engine documents are not routed to their owner.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ClusterMembership {
+
+    private static final String NODES_KEY = "cluster:nodes";
+
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${application.websocket.relay:none}")
+    private String relay;
+
+    @Value("${application.collaboration.engine:ot}")
+    private String engine;
+
+    @Value("${application.cluster.heartbeat-interval:5000}")
+    private long heartbeatIntervalMillis;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /** Identifies the CRDT replicas of this node; derived from the node ID so peers can tell when they left. */
+    private final int replicaId = replicaIdOf(nodeId);
+
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(List.of(nodeId));
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getReplicaId() {
+        return replicaId;
+    }
+
+    /**
+     * @param nodeId the node ID
+     * @return the ID of the CRDT replicas of that node, always positive
+     */
+    public static int replicaIdOf(String nodeId) {
+        return Math.floorMod(nodeId.hashCode(), Integer.MAX_VALUE - 1) + 1;
+    }
+
+    /**
+     * @return true if this node is one of several that share documents through Redis
+     */
+    public boolean isClustered() {
+        return "redis".equalsIgnoreCase(relay);
+    }
+
+    /**
+     * @return true if documents are edited only on the node that owns them
+     */
+    public boolean isRoutedByOwner() {
+        return isClustered() && MergeEngineType.fromName(engine) == MergeEngineType.OT;
+    }
+
+    /**
+     * @param documentId the document ID
+     * @return the ID of the node that owns the document
+     */
+    public String ownerOf(String documentId) {
+        String owner = ring.nodeFor(documentId);
+        return owner != null ? owner : nodeId;
+    }
+
+    /**
+     * @param documentId the document ID
+     * @return true if this node owns the document
+     */
+    public boolean isOwner(String documentId) {
+        return nodeId.equals(ownerOf(documentId));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void join() {
+        heartbeat();
+    }
+
+    /**
+     * Refreshes the heartbeat of this node and rebuilds the ring when nodes joined or left
+     */
+    @Scheduled(fixedDelayString = "${application.cluster.heartbeat-interval:5000}")
+    public void heartbeat() {
+        if (!isClustered()) {
+            return;
+        }
+        try {
+            StringRedisTemplate redis = redisTemplate.getObject();
+            long now = System.currentTimeMillis();
+            redis.opsForZSet().add(NODES_KEY, nodeId, now);
+            redis.opsForZSet().removeRangeByScore(NODES_KEY, 0, now - 3 * heartbeatIntervalMillis);
+
+            Set<String> live = new TreeSet<>(redis.opsForZSet().range(NODES_KEY, 0, -1));
+            live.add(nodeId);
+            if (!live.equals(new TreeSet<>(ring.getNodes()))) {
+                ring = new ConsistentHashRing(live);
+                log.info("Cluster membership changed, {} live nodes: {}", live.size(), live);
+                eventPublisher.publishEvent(new ClusterMembershipChanged(Set.copyOf(live)));
+            }
+        } catch (Exception e) {
+            log.error("Error refreshing cluster membership", e);
+        }
+    }
+
+    /**
+     * Leaves the cluster so that other nodes take over this node's documents without waiting for a timeout
+     */
+    @PreDestroy
+    public void leave() {
+        if (!isClustered()) {
+            return;
+        }
+        try {
+            redisTemplate.getObject().opsForZSet().remove(NODES_KEY, nodeId);
+        } catch (Exception e) {
+            log.warn("Error leaving cluster: {}", e.getMessage());
+        }
+    }
+}
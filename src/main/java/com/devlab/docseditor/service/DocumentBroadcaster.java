@@ -0,0 +1,236 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.model.dto.websocket.DocumentOperationMessage;
+import com.devlab.docseditor.model.dto.websocket.DocumentUpdateMessage;
+import com.devlab.docseditor.model.session.ActiveDocument;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Outbound batcher for document topics.
+ * Operations published for a document within {@code application.websocket.broadcast-window} milliseconds,
+ * or until {@code application.websocket.broadcast-max-operations} are collected, go out as one frame holding
+ * an array of operations, serialized once for all subscribers. Full-content updates are coalesced to the
+ * latest content of the window, since each one replaces the previous.
+ * Frames are handed to the {@link DocumentTopicRelay}, which also delivers them to subscribers on other nodes.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentBroadcaster {
+
+    private final DocumentTopicRelay documentTopicRelay;
+
+    @Value("${application.websocket.broadcast-window:20}")
+    private long broadcastWindowMillis;
+
+    @Value("${application.websocket.broadcast-max-operations:50}")
+    private int maxBatchOperations;
+
+    private final Map<String, PendingBroadcast> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "document-broadcast");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queues an operation for {@code /topic/document.{id}.ops}.
+     * Operations of a document are sent in the order they are published, so callers publish while
+     * holding the document's sequence lock.
+     * @param documentId the document ID
+     * @param message the applied operation
+     * @return completed once the frame holding the operation has been sent, e.g. to acknowledge it, or completed
+     *         exceptionally if sending it failed
+     */
+    public CompletableFuture<Void> publishOperation(String documentId, DocumentOperationMessage message) {
+        if (broadcastWindowMillis <= 0) {
+            try {
+                documentTopicRelay.send(documentId, operationsTopic(documentId), List.of(message));
+                return CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                log.error("Error broadcasting to document {}", documentId, e);
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        while (true) {
+            PendingBroadcast broadcast = pending.computeIfAbsent(documentId, PendingBroadcast::new);
+            broadcast.lock.lock();
+            try {
+                if (broadcast.closed) {
+                    continue;
+                }
+                CompletableFuture<Void> sent = new CompletableFuture<>();
+                broadcast.operations.add(message);
+                broadcast.sent.add(sent);
+                if (broadcast.operations.size() >= maxBatchOperations) {
+                    flush(broadcast);
+                } else {
+                    schedule(broadcast);
+                }
+                return sent;
+            } finally {
+                broadcast.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Queues a full-content update for {@code /topic/document.{id}}, replacing any content queued in this window
+     * @param documentId the document ID
+     * @param message the update
+     */
+    public void publishContent(String documentId, DocumentUpdateMessage message) {
+        queueContent(documentId, () -> message);
+    }
+
+    /**
+     * Queues the content of a document snapshot for {@code /topic/document.{id}}, replacing any content queued in
+     * this window. The text is only copied out of the snapshot when the window ends, so a burst of merged
+     * changes sends and copies it once.
+     * @param documentId the document ID
+     * @param snapshot the content and revision on this node
+     */
+    public void publishSnapshot(String documentId, ActiveDocument.Snapshot snapshot) {
+        queueContent(documentId, () -> new DocumentUpdateMessage(documentId, snapshot.content().toString(), null,
+                System.currentTimeMillis(), snapshot.revision()));
+    }
+
+    private void queueContent(String documentId, Supplier<DocumentUpdateMessage> content) {
+        if (broadcastWindowMillis <= 0) {
+            documentTopicRelay.send(documentId, contentTopic(documentId), content.get());
+            return;
+        }
+        while (true) {
+            PendingBroadcast broadcast = pending.computeIfAbsent(documentId, PendingBroadcast::new);
+            broadcast.lock.lock();
+            try {
+                if (broadcast.closed) {
+                    continue;
+                }
+                broadcast.content = content;
+                schedule(broadcast);
+                return;
+            } finally {
+                broadcast.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends everything still queued before the application stops
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (PendingBroadcast broadcast : pending.values()) {
+            broadcast.lock.lock();
+            try {
+                flush(broadcast);
+            } finally {
+                broadcast.lock.unlock();
+            }
+        }
+    }
+
+    private void schedule(PendingBroadcast broadcast) {
+        if (!broadcast.scheduled) {
+            broadcast.scheduled = true;
+            scheduler.schedule(() -> flushAndRelease(broadcast), broadcastWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushAndRelease(PendingBroadcast broadcast) {
+        broadcast.lock.lock();
+        try {
+            flush(broadcast);
+            broadcast.scheduled = false;
+            // Drop idle documents; publishers that still hold this instance retry with a new one
+            if (broadcast.operations.isEmpty() && broadcast.content == null) {
+                broadcast.closed = true;
+                pending.remove(broadcast.documentId, broadcast);
+            }
+        } finally {
+            broadcast.lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the queued operations and content. The futures of the operations are completed whether or not the
+     * send succeeded, so a failed batch still reaches the authors waiting for their acknowledgement.
+     */
+    private void flush(PendingBroadcast broadcast) {
+        if (!broadcast.operations.isEmpty()) {
+            List<CompletableFuture<Void>> sent = broadcast.sent;
+            Exception failure = null;
+            try {
+                documentTopicRelay.send(broadcast.documentId, operationsTopic(broadcast.documentId), broadcast.operations);
+            } catch (Exception e) {
+                log.error("Error broadcasting {} operations to document {}", broadcast.operations.size(),
+                        broadcast.documentId, e);
+                failure = e;
+            }
+            broadcast.operations = new ArrayList<>();
+            broadcast.sent = new ArrayList<>();
+            for (CompletableFuture<Void> future : sent) {
+                if (failure == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+        if (broadcast.content != null) {
+            try {
+                documentTopicRelay.send(broadcast.documentId, contentTopic(broadcast.documentId), broadcast.content.get());
+            } catch (Exception e) {
+                log.error("Error broadcasting content to document {}", broadcast.documentId, e);
+            }
+            broadcast.content = null;
+        }
+    }
+
+    private static String operationsTopic(String documentId) {
+        return "/topic/document." + documentId + ".ops";
+    }
+
+    private static String contentTopic(String documentId) {
+        return "/topic/document." + documentId;
+    }
+
+    /**
+     * Messages queued for one document during the current window; guarded by its lock, which is held while the
+     * batch is sent to Redis and so is not a monitor that would pin a virtual thread's carrier.
+     */
+    private static final class PendingBroadcast {
+        private final Lock lock = new ReentrantLock();
+        private final String documentId;
+        private List<DocumentOperationMessage> operations = new ArrayList<>();
+        /** Completed when the operation at the same index has been sent. */
+        private List<CompletableFuture<Void>> sent = new ArrayList<>();
+        /** Builds the latest full-content update of the window. */
+        private Supplier<DocumentUpdateMessage> content;
+        private boolean scheduled;
+        private boolean closed;
+
+        private PendingBroadcast(String documentId) {
+            this.documentId = documentId;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.model.dto.websocket.DocumentOperationMessage;
+import com.devlab.docseditor.model.dto.websocket.DocumentUpdateMessage;
+import com.devlab.docseditor.model.dto.websocket.RequestRejectedMessage;
+import com.devlab.docseditor.model.session.SessionPrincipal;
+import com.devlab.docseditor.utils.KeyedSerialExecutor;
+import com.devlab.docseditor.utils.VirtualThreads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Routes document requests to the node that owns the document.
+ * With the OT engine in a cluster, requests received by any other node are forwarded to the owner over the owner's
+ * Redis channel and handled there as if its own client had sent them; the owner's broadcasts reach every node
+ * through the {@link DocumentTopicRelay} and its replies reach the sender through the relay's user channel.
+ * A forwarded request carries the sender's user and role on the document as resolved by the receiving node,
+ * so the owner does not look them up again.
+ * Otherwise every request is handled on the node that received it.
+ * <p>
+ * A document has exactly one sequencer, so a request is never handled by a node that does not own its document.
+ * When the owner does not receive a forwarded request, the ring is refreshed and the request is sent once more,
+ * to whichever node owns the document then; a node also checks that it still owns the document of a request
+ * forwarded to it. A request that cannot reach the owner is rejected and the sender is told on
+ * {@code /user/queue/document.{id}.rejected}, so the client can retry once the ring has settled.
+ * <p>
+ * Forwarded requests are handled on a pool of their own, one at a time and in arrival order per document, so a
+ * request that loads its document does not hold up the relay listener or requests for other documents.
+ * <p>
+ * Handling is timed per request type in {@code websocket.requests}, tagged with whether the request was forwarded
+ * by another node; requests sent on to the owner are counted in {@code websocket.requests.forwarded} and
+ * rejected ones in {@code websocket.requests.rejected}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentRouter implements MessageListener {
+
+    private static final String CHANNEL_PREFIX = "cluster-node:";
+
+    private final WebSocketService webSocketService;
+    private final SessionPrincipalService sessionPrincipalService;
+    private final ClusterMembership clusterMembership;
+    private final DocumentTopicRelay documentTopicRelay;
+    private final ObjectMapper objectMapper;
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final ObjectProvider<RedisMessageListenerContainer> listenerContainer;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Request, Timer> localTimers = new EnumMap<>(Request.class);
+    private final Map<Request, Timer> forwardedTimers = new EnumMap<>(Request.class);
+    private final Map<Request, Counter> forwardedCounters = new EnumMap<>(Request.class);
+    private final Map<Request, Counter> rejectedCounters = new EnumMap<>(Request.class);
+
+    /**
+     * Requests that can be forwarded to the owner of a document.
+     */
+    public enum Request {
+        LOAD, UPDATE, OPERATION, JOIN, LEAVE
+    }
+
+    /**
+     * Where a request ended up.
+     */
+    private enum Route {
+        /** This node owns the document and handles the request. */
+        LOCAL,
+        /** The owner received the request. */
+        FORWARDED,
+        /** No node that owns the document received the request. */
+        REJECTED
+    }
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${application.cluster.forward-threads:8}")
+    private int forwardThreads;
+
+    private TaskExecutor forwardExecutor;
+    /** Handles requests forwarded by other nodes off the Redis listener thread, in arrival order per document. */
+    private KeyedSerialExecutor forwardedRequests;
+
+    @PostConstruct
+    void init() {
+        if (VirtualThreads.isEnabled(virtualThreads)) {
+            forwardExecutor = VirtualThreads.perTaskExecutor("document-forwarded-");
+        } else {
+            ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+            pool.setCorePoolSize(forwardThreads);
+            pool.setMaxPoolSize(forwardThreads);
+            pool.setThreadNamePrefix("document-forwarded-");
+            pool.initialize();
+            forwardExecutor = pool;
+        }
+        forwardedRequests = new KeyedSerialExecutor(forwardExecutor);
+        registerMeters();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (forwardExecutor instanceof ThreadPoolTaskExecutor pool) {
+            pool.shutdown();
+        }
+    }
+
+    private void registerMeters() {
+        for (Request request : Request.values()) {
+            String type = request.name().toLowerCase();
+            localTimers.put(request, requestTimer(type, false));
+            forwardedTimers.put(request, requestTimer(type, true));
+            forwardedCounters.put(request, Counter.builder("websocket.requests.forwarded")
+                    .description("Document requests sent on to the node that owns the document")
+                    .tag("type", type)
+                    .register(meterRegistry));
+            rejectedCounters.put(request, Counter.builder("websocket.requests.rejected")
+                    .description("Document requests rejected because the node that owns the document did not get them")
+                    .tag("type", type)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Handles a document update message here or on the owner of its document
+     * @param request the kind of request
+     * @param principal the sender
+     * @param message the message
+     * @return false if the request was rejected because the owner of the document is unavailable
+     */
+    public boolean route(Request request, SessionPrincipal principal, DocumentUpdateMessage message) {
+        Route route = forward(request, principal, message.getDocumentId(), message);
+        if (route == Route.LOCAL) {
+            localTimers.get(request).record(() -> handle(request, principal, message));
+        }
+        return route != Route.REJECTED;
+    }
+
+    /**
+     * Handles a document operation here or on the owner of its document
+     * @param principal the sender
+     * @param message the operation
+     */
+    public void route(SessionPrincipal principal, DocumentOperationMessage message) {
+        if (forward(Request.OPERATION, principal, message.getDocumentId(), message) == Route.LOCAL) {
+            localTimers.get(Request.OPERATION).record(() -> webSocketService.handleDocumentOperation(principal, message));
+        }
+    }
+
+    /**
+     * Starts accepting requests forwarded by other nodes
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void listen() {
+        if (clusterMembership.isRoutedByOwner()) {
+            listenerContainer.getObject().addMessageListener(this, channel(clusterMembership.getNodeId()));
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(message.getBody()))) {
+            Request request = Request.values()[input.readByte()];
+            String origin = input.readUTF();
+            SessionPrincipal principal = new SessionPrincipal(input.readUTF(), input.readUTF());
+            String documentId = input.readUTF();
+            principal.cacheRole(documentId, input.readUTF());
+            byte[] payload = input.readAllBytes();
+            Object forwarded = request == Request.OPERATION
+                    ? objectMapper.readValue(payload, DocumentOperationMessage.class)
+                    : objectMapper.readValue(payload, DocumentUpdateMessage.class);
+            if (!clusterMembership.isOwner(documentId)) {
+                // The rings of the two nodes disagree; sending it on could bounce it between them
+                reject(request, principal, documentId, forwarded,
+                        "Forwarded by node " + origin + " to a node that does not own the document");
+                return;
+            }
+            // Handling may load the document; the listener thread also delivers every relayed frame
+            forwardedRequests.execute(documentId, () -> handleForwarded(request, origin, principal, forwarded));
+        } catch (Exception e) {
+            log.error("Error handling forwarded request", e);
+        }
+    }
+
+    private void handleForwarded(Request request, String origin, SessionPrincipal principal, Object forwarded) {
+        log.debug("Handling {} forwarded by node {}", request, origin);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            if (forwarded instanceof DocumentOperationMessage operation) {
+                webSocketService.handleDocumentOperation(principal, operation);
+            } else {
+                handle(request, principal, (DocumentUpdateMessage) forwarded);
+            }
+        } catch (Exception e) {
+            log.error("Error handling {} forwarded by node {}", request, origin, e);
+        }
+        sample.stop(forwardedTimers.get(request));
+    }
+
+    private void handle(Request request, SessionPrincipal principal, DocumentUpdateMessage message) {
+        switch (request) {
+            case LOAD -> webSocketService.handleDocumentLoad(principal, message);
+            case UPDATE -> webSocketService.handleDocumentUpdate(principal, message);
+            case JOIN -> webSocketService.handleUserJoin(principal, message);
+            case LEAVE -> webSocketService.handleUserLeave(principal, message);
+            default -> throw new IllegalArgumentException("Not a document update request: " + request);
+        }
+    }
+
+    /**
+     * Sends a request to the owner of its document unless this node owns it
+     * @return where the request ended up; a rejected request has been reported to the sender
+     */
+    private Route forward(Request request, SessionPrincipal principal, String documentId, Object message) {
+        if (!clusterMembership.isRoutedByOwner() || documentId == null) {
+            return Route.LOCAL;
+        }
+        String owner = clusterMembership.ownerOf(documentId);
+        if (owner.equals(clusterMembership.getNodeId())) {
+            return Route.LOCAL;
+        }
+
+        byte[] envelope = encode(request, principal, documentId, message);
+        if (publish(owner, envelope)) {
+            forwardedCounters.get(request).increment();
+            return Route.FORWARDED;
+        }
+
+        // The owner is gone but may still be on the ring until its heartbeat expires
+        clusterMembership.heartbeat();
+        String newOwner = clusterMembership.ownerOf(documentId);
+        if (newOwner.equals(clusterMembership.getNodeId())) {
+            log.info("Took over document {} from node {}", documentId, owner);
+            return Route.LOCAL;
+        }
+        if (!newOwner.equals(owner) && publish(newOwner, envelope)) {
+            forwardedCounters.get(request).increment();
+            return Route.FORWARDED;
+        }
+        reject(request, principal, documentId, message, "Owner " + newOwner + " of the document is unavailable");
+        return Route.REJECTED;
+    }
+
+    private byte[] encode(Request request, SessionPrincipal principal, String documentId, Object message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(request.ordinal());
+            output.writeUTF(clusterMembership.getNodeId());
+            output.writeUTF(principal.getUserId());
+            output.writeUTF(principal.getUsername());
+            output.writeUTF(documentId);
+            output.writeUTF(sessionPrincipalService.roleOn(principal, documentId));
+            output.write(objectMapper.writeValueAsBytes(message));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode forwarded request", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return true if the node received the envelope
+     */
+    private boolean publish(String nodeId, byte[] envelope) {
+        byte[] channel = channel(nodeId).getTopic().getBytes(StandardCharsets.UTF_8);
+        Long receivers = redisTemplate.getObject()
+                .execute((RedisCallback<Long>) connection -> connection.publish(channel, envelope));
+        return receivers != null && receivers > 0;
+    }
+
+    /**
+     * Drops a request that no owner of its document can handle and tells the sender
+     */
+    private void reject(Request request, SessionPrincipal principal, String documentId, Object message, String reason) {
+        log.warn("Rejected {} for document {} from user {}: {}", request, documentId, principal.getUserId(), reason);
+        rejectedCounters.get(request).increment();
+        String operationId = message instanceof DocumentOperationMessage operation ? operation.getOperationId() : null;
+        documentTopicRelay.sendToUser(
+                principal.getUsername(),
+                "/queue/document." + documentId + ".rejected",
+                new RequestRejectedMessage(documentId, request.name().toLowerCase(), operationId, reason,
+                        System.currentTimeMillis()));
+    }
+
+    private Timer requestTimer(String type, boolean forwarded) {
+        return Timer.builder("websocket.requests")
+                .description("Time handling a document request on this node")
+                .tag("type", type)
+                .tag("forwarded", Boolean.toString(forwarded))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static ChannelTopic channel(String nodeId) {
+        return new ChannelTopic(CHANNEL_PREFIX + nodeId);
+    }
+}
@@ -1,25 +1,55 @@
 package com.devlab.docseditor.service;
 
+import com.devlab.docseditor.exception.DocumentConflictException;
 import com.devlab.docseditor.exception.OwnerAccessException;
 import com.devlab.docseditor.exception.DocumentNotFoundException;
 import com.devlab.docseditor.exception.NoEditAccessException;
+import com.devlab.docseditor.exception.VersionNotFoundException;
+import com.devlab.docseditor.model.dto.response.DocumentVersionSummary;
 import com.devlab.docseditor.model.entity.CollaborativeDocument;
 import com.devlab.docseditor.model.entity.DocumentVersion;
 import com.devlab.docseditor.model.entity.User;
+import com.devlab.docseditor.model.session.DocumentAccessChanged;
 import com.devlab.docseditor.repository.DocumentRepository;
+import com.devlab.docseditor.repository.DocumentVersionRepository;
 import com.devlab.docseditor.utils.VersioningUtil;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class DocumentService {
 
+    private static final int MAX_LIVE_SAVE_ATTEMPTS = 3;
+
     private final DocumentRepository documentRepository;
+    private final DocumentVersionRepository documentVersionRepository;
     private final UserService userService;
     private final CacheService cacheService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${application.versioning.keyframe-interval:" + VersioningUtil.DEFAULT_KEYFRAME_INTERVAL + "}")
+    private int keyframeInterval;
 
     /**
      * Create a new document
@@ -30,15 +60,14 @@ public class DocumentService {
      */
     public CollaborativeDocument createDocument(String title, String content, String ownerId) {
         CollaborativeDocument document = CollaborativeDocument.builder()
+                .id(new ObjectId().toHexString()) // versions reference the document before it is saved
                 .title(title)
                 .content(content)
                 .ownerId(ownerId)
                 .accessRoles(new HashMap<>())
-                .versions(new ArrayList<>())
                 .build();
 
-        var initialVersion = VersioningUtil.createNewVersion(document, content, ownerId);
-        document.getVersions().add(initialVersion);
+        documentVersionRepository.save(VersioningUtil.createNewVersion(document, content, ownerId, keyframeInterval));
         
         return documentRepository.save(document);
     }
@@ -55,27 +84,55 @@ public class DocumentService {
     }
 
     /**
-     * Update document content
+     * Get a document the user is about to change.
+     * Content changes are not written here: they go through the live document, which the write-behind flush persists,
+     * so that a change made over REST and the edits made over WebSocket are sequenced together.
      * @param documentId the document ID
-     * @param newContent the new content
-     * @param userId the ID of the user making the update
-     * @return the updated document
-     * @throws NoSuchElementException if document not found
+     * @param userId the ID of the user making the change
+     * @return the document
+     * @throws DocumentNotFoundException if document not found
      * @throws NoEditAccessException if user doesn't have edit access
      */
-    public CollaborativeDocument updateDocument(String documentId, String newContent, String userId) {
+    public CollaborativeDocument getDocumentForEdit(String documentId, String userId) {
         CollaborativeDocument document = getDocumentById(documentId);
 
         if (!hasEditAccess(document, userId)) {
             throw new NoEditAccessException("User does not have edit access to this document: " + userId);
         }
+        return document;
+    }
 
-        DocumentVersion newVersion = VersioningUtil.createNewVersion(document, newContent, userId);
+    /**
+     * Persist the live content of a document edited over WebSocket.
+     * Edit access is checked when each edit arrives, so it is not checked again here.
+     * @param documentId the document ID
+     * @param newContent the live content
+     * @param userId the ID of the user who made the last edit
+     * @param revision the revision of the live content
+     * @param crdtState the encoded CRDT replica matching the content, or null to keep the stored state
+     * @return the updated document
+     * @throws NoSuchElementException if document not found
+     * @throws DocumentConflictException if the document kept changing concurrently on every attempt
+     */
+    public CollaborativeDocument saveLiveContent(String documentId, String newContent, String userId, long revision,
+                                                 byte[] crdtState) {
+        // The live content is authoritative, so a write that lost a race is retried against a fresh read
+        for (int attempt = 1; ; attempt++) {
+            CollaborativeDocument document = getDocumentById(documentId);
 
-        document.setContent(newContent);
-        document.getVersions().add(newVersion);
-        
-        return documentRepository.save(document);
+            Update update = new Update().set("revision", revision);
+            if (crdtState != null) {
+                update.set("crdtState", crdtState);
+            }
+
+            try {
+                return saveContent(document, newContent, userId, update);
+            } catch (DocumentConflictException e) {
+                if (attempt == MAX_LIVE_SAVE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
     }
 
     /**
@@ -93,6 +150,7 @@ public class DocumentService {
         }
         
         documentRepository.delete(document);
+        documentVersionRepository.deleteByDocumentId(documentId);
     }
 
     /**
@@ -116,13 +174,24 @@ public class DocumentService {
             throw new OwnerAccessException("Only the document owner can share it");
         }
 
-        User targetUser = userService.findById(targetUserId);
-        document.getAccessRoles().put(targetUserId, role);
+        userService.findById(targetUserId);
 
-        targetUser.getSharedDocumentIds().add(documentId);
-        userService.save(targetUser);
-        
-        return documentRepository.save(document);
+        // Only the changed role and the shared ID are written, so concurrent shares do not overwrite each other
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(targetUserId)),
+                new Update().addToSet("sharedDocumentIds", documentId),
+                User.class);
+        CollaborativeDocument saved = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(documentId)),
+                new Update().set("accessRoles." + targetUserId, role),
+                FindAndModifyOptions.options().returnNew(true),
+                CollaborativeDocument.class);
+        if (saved == null) {
+            throw new DocumentNotFoundException("Document not found with ID: " + documentId);
+        }
+
+        eventPublisher.publishEvent(new DocumentAccessChanged(documentId, targetUserId));
+        return saved;
     }
 
     /**
@@ -145,13 +214,62 @@ public class DocumentService {
     }
 
     /**
-     * Get document version history
-     * @param documentId the document ID
-     * @return list of document versions
+     * Stream the metadata of a page of a document's versions, newest first
+     * @param document the document
+     * @param beforeVersion cursor: only versions with a lower number are returned, or null to start at the latest
+     * @param limit the maximum number of versions
+     * @return stream of version metadata, to be closed by the caller
      */
-    public List<DocumentVersion> getDocumentVersionHistory(String documentId) {
-        CollaborativeDocument document = getDocumentById(documentId);
-        return document.getVersions();
+    public Stream<DocumentVersionSummary> streamVersionSummaries(CollaborativeDocument document, Integer beforeVersion,
+                                                                 int limit) {
+        int before = beforeVersion != null ? beforeVersion : Integer.MAX_VALUE;
+        return documentVersionRepository.findByDocumentIdAndVersionNumberLessThanOrderByVersionNumberDesc(
+                document.getId(), before, Limit.of(limit));
+    }
+
+    /**
+     * Get a single version with its content, reconstructed from the nearest keyframe before it
+     * @param document the document
+     * @param versionNumber the version number
+     * @return the version with its content snapshot
+     * @throws VersionNotFoundException if the version does not exist
+     */
+    public DocumentVersion getDocumentVersion(CollaborativeDocument document, int versionNumber) {
+        String documentId = document.getId();
+        DocumentVersion version = documentVersionRepository.findByDocumentIdAndVersionNumber(documentId, versionNumber)
+                .orElseThrow(() -> new VersionNotFoundException(
+                        "Version " + versionNumber + " not found for document: " + documentId));
+        if (version.isKeyframe()) {
+            return version;
+        }
+
+        DocumentVersion keyframe = documentVersionRepository
+                .findFirstByDocumentIdAndVersionNumberLessThanEqualAndContentSnapshotIsNotNullOrderByVersionNumberDesc(
+                        documentId, versionNumber)
+                .orElseThrow(() -> new IllegalStateException("No keyframe before version " + versionNumber
+                        + " of document: " + documentId));
+        List<DocumentVersion> chain = documentVersionRepository
+                .findByDocumentIdAndVersionNumberGreaterThanEqualAndVersionNumberLessThanEqualOrderByVersionNumberAsc(
+                        documentId, keyframe.getVersionNumber(), versionNumber);
+
+        version.setContentSnapshot(VersioningUtil.reconstructContent(chain));
+        version.setDelta(null);
+        return version;
+    }
+
+    /**
+     * Get the version that was current at a time, with its content
+     * @param document the document
+     * @param time the time
+     * @return the latest version saved at or before the time, with its content snapshot
+     * @throws VersionNotFoundException if the first version is later than the time
+     */
+    public DocumentVersion getDocumentVersionAt(CollaborativeDocument document, LocalDateTime time) {
+        DocumentVersionSummary summary = documentVersionRepository
+                .findFirstByDocumentIdAndTimestampLessThanEqualOrderByTimestampDescVersionNumberDesc(document.getId(), time)
+                .orElseThrow(() -> new VersionNotFoundException(
+                        "No version at " + time + " for document: " + document.getId()));
+        return getDocumentVersion(document, summary.getVersionNumber());
     }
 
     /**
@@ -164,4 +282,114 @@ public class DocumentService {
         String role = document.getAccessRoles().get(userId);
         return userId.equals(document.getOwnerId()) || "editor".equals(role);
     }
-}
\ No newline at end of file
+
+    /**
+     * Write the new content with a targeted update and append a version for it.
+     * The version count serves as optimistic revision: the update only applies if no other content write
+     * happened since the document was read, otherwise the version computed from the read content would be wrong.
+     * @param document the document as read
+     * @param newContent the new content
+     * @param userId the ID of the user making the update
+     * @param update further fields to set together with the content
+     * @return the updated document
+     * @throws DocumentConflictException if the content was written concurrently
+     */
+    private CollaborativeDocument saveContent(CollaborativeDocument document, String newContent, String userId,
+                                              Update update) {
+        migrateEmbeddedVersions(document);
+        int readVersionCount = document.getVersionCount();
+        DocumentVersion version = VersioningUtil.createNewVersion(document, newContent, userId, keyframeInterval);
+
+        update.set("content", newContent)
+                .set("versionCount", document.getVersionCount())
+                .set("lastKeyframeVersion", document.getLastKeyframeVersion())
+                .set("lastVersionTime", document.getLastVersionTime());
+        // Documents written before the counter existed have no versionCount field at all
+        Criteria unchanged = readVersionCount == 0
+                ? new Criteria().orOperator(Criteria.where("versionCount").is(0),
+                        Criteria.where("versionCount").exists(false))
+                : Criteria.where("versionCount").is(readVersionCount);
+        CollaborativeDocument saved = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(document.getId()).andOperator(unchanged)),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                CollaborativeDocument.class);
+        if (saved == null) {
+            throw new DocumentConflictException("Document was modified concurrently: " + document.getId());
+        }
+
+        // Written once the document claimed the version number, so a writer that lost the race never
+        // replaces the winner's version; its ID is derived from the number, so a retry overwrites it
+        documentVersionRepository.save(version);
+        return saved;
+    }
+
+    /**
+     * Move the histories still embedded in documents into the version collection.
+     * Runs in the background once the application is ready, so neither startup nor reads wait for it;
+     * a document written before the migration reaches it is migrated by that write.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateEmbeddedVersions() {
+        AtomicInteger migrated = new AtomicInteger();
+        CompletableFuture.runAsync(() -> {
+                    try (Stream<CollaborativeDocument> documents = mongoTemplate.stream(
+                            Query.query(Criteria.where("versions").exists(true)), CollaborativeDocument.class)) {
+                        documents.forEach(document -> {
+                            migrateEmbeddedVersions(document);
+                            migrated.incrementAndGet();
+                        });
+                    }
+                })
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        log.error("Error migrating embedded version histories", e);
+                    } else if (migrated.get() > 0) {
+                        log.info("Migrated the embedded version histories of {} documents", migrated.get());
+                    }
+                });
+    }
+
+    /**
+     * Move a history still embedded in the document into the version collection
+     * @param document the document, saved by the caller
+     */
+    private void migrateEmbeddedVersions(CollaborativeDocument document) {
+        List<DocumentVersion> embedded = document.getLegacyVersions();
+        if (embedded == null) {
+            return;
+        }
+
+        int lastKeyframe = 0;
+        LocalDateTime lastTime = null;
+        for (int i = 0; i < embedded.size(); i++) {
+            DocumentVersion version = embedded.get(i);
+            // Lookups by time need timestamps that never decrease with the version number
+            if (lastTime != null && (version.getTimestamp() == null || version.getTimestamp().isBefore(lastTime))) {
+                version.setTimestamp(lastTime);
+            }
+            lastTime = version.getTimestamp();
+            version.setVersionNumber(i + 1);
+            version.setDocumentId(document.getId());
+            version.setId(VersioningUtil.versionId(document.getId(), i + 1));
+            if (version.isKeyframe()) {
+                lastKeyframe = i + 1;
+            }
+        }
+        documentVersionRepository.saveAll(embedded);
+
+        document.setVersionCount(embedded.size());
+        document.setLastKeyframeVersion(lastKeyframe);
+        document.setLastVersionTime(lastTime);
+        document.setLegacyVersions(null);
+        // Only while still embedded: a write that migrated the document first may have added versions since
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(document.getId()).and("versions").exists(true)),
+                new Update()
+                        .set("versionCount", embedded.size())
+                        .set("lastKeyframeVersion", lastKeyframe)
+                        .set("lastVersionTime", lastTime)
+                        .unset("versions"),
+                CollaborativeDocument.class);
+    }
+}
@@ -0,0 +1,430 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.engine.MergeEngineType;
+import com.devlab.docseditor.model.session.ActiveDocument;
+import com.devlab.docseditor.model.session.DocumentActivated;
+import com.devlab.docseditor.model.session.RemoteDocumentUpdate;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers document topics to the subscribers of this node and, when {@code application.websocket.relay} is
+ * {@code redis}, to the subscribers of every other node through one Redis pub/sub channel per document.
+ * A node only listens on the channel of a document while it has local STOMP subscriptions to that document's
+ * topics, so cross-node traffic follows actual interest.
+ * <p>
+ * Revisions are local to a node, so with the CRDT engine neither {@code .ops} frames nor content frames on
+ * {@code /topic/document.{id}} are relayed; nodes exchange replica updates instead and each node broadcasts the
+ * resulting operations and content in its own revision sequence.
+ * Messages for a single user are delivered locally when the user is connected to this node and otherwise published
+ * on a channel all nodes listen to, for replies to requests forwarded from another node.
+ * <p>
+ * Local subscriptions are counted on every node and reported in aggregate, as the {@code websocket.subscriptions}
+ * gauge and the {@code websocket.documents.subscribed} gauge of documents with local subscribers; meters are not
+ * tagged with document IDs, whose number is unbounded.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentTopicRelay implements MessageListener {
+
+    private static final String TOPIC_PREFIX = "/topic/document.";
+    private static final String CHANNEL_PREFIX = "document-relay:";
+    private static final String USER_PREFIX = "/user/";
+    private static final String USERS_CHANNEL = "document-relay-users";
+
+    private static final byte FRAME = 'F';
+    private static final byte UPDATE = 'U';
+    private static final byte SYNC = 'S';
+    private static final byte USER = 'P';
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectMapper objectMapper;
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final ObjectProvider<RedisMessageListenerContainer> listenerContainer;
+    private final SimpUserRegistry simpUserRegistry;
+    private final ActiveDocumentRegistry activeDocumentRegistry;
+    private final ClusterMembership clusterMembership;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${application.collaboration.engine:ot}")
+    private String engine;
+
+    /**
+     * Guards the subscription counts. A lock rather than a monitor: the first and last subscription to a document
+     * also subscribe and unsubscribe its Redis channel, and a virtual thread waiting on Redis inside a monitor
+     * would pin its carrier.
+     */
+    private final Lock subscriptionLock = new ReentrantLock();
+    /** Local subscriptions per session: subscription ID to document ID; guarded by the subscription lock. */
+    private final Map<String, Map<String, String>> sessionSubscriptions = new HashMap<>();
+    /** Number of local subscriptions per document; guarded by the subscription lock. */
+    private final Map<String, Integer> interest = new HashMap<>();
+    /** Number of local subscriptions to all documents; guarded by the subscription lock. */
+    private int subscriptions;
+
+    @PostConstruct
+    void registerMeters() {
+        Gauge.builder("websocket.subscriptions", this, DocumentTopicRelay::subscriptionCount)
+                .description("Local STOMP subscriptions to document topics")
+                .register(meterRegistry);
+        Gauge.builder("websocket.documents.subscribed", this, DocumentTopicRelay::subscribedDocumentCount)
+                .description("Documents with local STOMP subscriptions")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sends a message to a document topic on every node. The payload is serialized once and the same bytes are
+     * delivered locally and published to the cluster.
+     * @param documentId the document ID
+     * @param destination the topic
+     * @param payload the message
+     */
+    public void send(String documentId, String destination, Object payload) {
+        byte[] body = serialize(destination, payload);
+        deliverLocally(destination, body);
+        if (isEnabled() && !(isCrdt() && carriesRevision(documentId, destination))) {
+            publish(channel(documentId), FRAME, destination, body);
+        }
+    }
+
+    /**
+     * @return true for the topics whose frames carry a document revision, the content and {@code .ops} topics
+     */
+    private static boolean carriesRevision(String documentId, String destination) {
+        return destination.equals(TOPIC_PREFIX + documentId) || destination.equals(TOPIC_PREFIX + documentId + ".ops");
+    }
+
+    /**
+     * Sends a message to a user, on whichever node the user is connected to
+     * @param username the principal name
+     * @param destination the user destination, e.g. {@code /queue/document.{id}.ack}
+     * @param payload the message
+     */
+    public void sendToUser(String username, String destination, Object payload) {
+        byte[] body = serialize(destination, payload);
+        if (!isEnabled() || simpUserRegistry.getUser(username) != null) {
+            deliverLocally(userDestination(username, destination), body);
+        } else {
+            publish(new ChannelTopic(USERS_CHANNEL), USER, userDestination(username, destination), body);
+        }
+    }
+
+    /**
+     * Publishes a CRDT update produced on this node to the replicas of the document on other nodes.
+     * Callers publish while holding the document's sequence lock so that updates leave in the order they were made.
+     * @param documentId the document ID
+     * @param update the encoded update, ignored if null
+     */
+    public void publishUpdate(String documentId, byte[] update) {
+        if (update != null && isEnabled()) {
+            publish(channel(documentId), UPDATE, null, update);
+        }
+    }
+
+    /**
+     * @return true if document topics are relayed across nodes
+     */
+    public boolean isEnabled() {
+        return clusterMembership.isClustered();
+    }
+
+    /**
+     * Starts listening for messages to users connected to this node
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void listenForUsers() {
+        if (isEnabled()) {
+            listenerContainer.getObject().addMessageListener(this, new ChannelTopic(USERS_CHANNEL));
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String documentId = channel.startsWith(CHANNEL_PREFIX) ? channel.substring(CHANNEL_PREFIX.length()) : null;
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(message.getBody()))) {
+            byte kind = input.readByte();
+            if (clusterMembership.getNodeId().equals(input.readUTF())) {
+                return;
+            }
+            switch (kind) {
+                case FRAME -> {
+                    String destination = input.readUTF();
+                    deliverLocally(destination, input.readAllBytes());
+                }
+                case USER -> {
+                    String destination = input.readUTF();
+                    if (simpUserRegistry.getUser(usernameOf(destination)) != null) {
+                        deliverLocally(destination, input.readAllBytes());
+                    }
+                }
+                case UPDATE -> eventPublisher.publishEvent(new RemoteDocumentUpdate(documentId, input.readAllBytes()));
+                case SYNC -> answerSync(documentId, input.readAllBytes());
+                default -> log.warn("Ignoring relayed message of unknown kind {} for document {}", kind, documentId);
+            }
+        } catch (Exception e) {
+            log.error("Error handling relayed message for document {}", documentId, e);
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String documentId = documentOf(accessor.getDestination());
+        if (documentId == null || accessor.getSessionId() == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        boolean first;
+        subscriptionLock.lock();
+        try {
+            String previous = sessionSubscriptions.computeIfAbsent(accessor.getSessionId(), id -> new HashMap<>())
+                    .put(accessor.getSubscriptionId(), documentId);
+            if (previous != null) {
+                release(previous);
+            }
+            first = interest.merge(documentId, 1, Integer::sum) == 1;
+            subscriptions++;
+            if (first && isEnabled()) {
+                listenerContainer.getObject().addMessageListener(this, channel(documentId));
+                log.debug("Listening to document {}", documentId);
+            }
+        } finally {
+            subscriptionLock.unlock();
+        }
+        if (first && isEnabled()) {
+            activeDocumentRegistry.find(documentId).ifPresent(this::requestSync);
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        List<String> idle = new ArrayList<>();
+        subscriptionLock.lock();
+        try {
+            Map<String, String> subscriptions = sessionSubscriptions.get(accessor.getSessionId());
+            String documentId = subscriptions != null ? subscriptions.remove(accessor.getSubscriptionId()) : null;
+            if (documentId != null && release(documentId)) {
+                idle.add(documentId);
+            }
+        } finally {
+            subscriptionLock.unlock();
+        }
+        deactivate(idle);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        List<String> idle = new ArrayList<>();
+        subscriptionLock.lock();
+        try {
+            Map<String, String> subscriptions = sessionSubscriptions.remove(event.getSessionId());
+            if (subscriptions != null) {
+                for (String documentId : subscriptions.values()) {
+                    if (release(documentId)) {
+                        idle.add(documentId);
+                    }
+                }
+            }
+        } finally {
+            subscriptionLock.unlock();
+        }
+        deactivate(idle);
+    }
+
+    /**
+     * Catches up a replica loaded on this node with the replicas other nodes already hold
+     * @param event the activation
+     */
+    @EventListener
+    public void onDocumentActivated(DocumentActivated event) {
+        if (isEnabled()) {
+            activeDocumentRegistry.find(event.documentId()).ifPresent(this::requestSync);
+        }
+    }
+
+    /**
+     * Drops one local subscription to a document, leaving its channel when it was the last one
+     * @param documentId the document ID
+     * @return true if this node has no subscribers to the document anymore
+     */
+    private boolean release(String documentId) {
+        if (!interest.containsKey(documentId)) {
+            return false;
+        }
+        subscriptions--;
+        Integer remaining = interest.computeIfPresent(documentId, (id, count) -> count > 1 ? count - 1 : null);
+        if (remaining == null) {
+            if (isEnabled()) {
+                listenerContainer.getObject().removeMessageListener(this, channel(documentId));
+                log.debug("Stopped listening to document {}", documentId);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private int subscriptionCount() {
+        subscriptionLock.lock();
+        try {
+            return subscriptions;
+        } finally {
+            subscriptionLock.unlock();
+        }
+    }
+
+    private int subscribedDocumentCount() {
+        subscriptionLock.lock();
+        try {
+            return interest.size();
+        } finally {
+            subscriptionLock.unlock();
+        }
+    }
+
+    /**
+     * Writes and unloads replicas nobody on this node edits anymore; editors on other nodes keep the
+     * cluster-wide active user set populated, so the last local leave alone does not unload them.
+     * Documents routed to their owner stay loaded there while editors on other nodes use them.
+     * @param documentIds the idle documents
+     */
+    private void deactivate(List<String> documentIds) {
+        if (!isEnabled() || clusterMembership.isRoutedByOwner()) {
+            return;
+        }
+        for (String documentId : documentIds) {
+            activeDocumentRegistry.remove(documentId);
+        }
+    }
+
+    private void requestSync(ActiveDocument activeDocument) {
+        if (isCrdt() && activeDocument.isReplicated()) {
+            publish(channel(activeDocument.getDocumentId()), SYNC, null, activeDocument.encodeStateVector());
+        }
+    }
+
+    private void answerSync(String documentId, byte[] stateVector) {
+        Optional<ActiveDocument> activeDocument = activeDocumentRegistry.find(documentId);
+        if (activeDocument.isEmpty() || !activeDocument.get().isReplicated()) {
+            return;
+        }
+        activeDocument.get().getSequenceLock().lock();
+        try {
+            publishUpdate(documentId, activeDocument.get().encodeUpdateSince(stateVector));
+        } finally {
+            activeDocument.get().getSequenceLock().unlock();
+        }
+    }
+
+    private void deliverLocally(String destination, byte[] body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(destination, MessageBuilder.createMessage(body, accessor.getMessageHeaders()));
+    }
+
+    private byte[] serialize(String destination, Object payload) {
+        try {
+            return objectMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize message for " + destination, e);
+        }
+    }
+
+    private void publish(ChannelTopic topic, byte kind, String destination, byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 64);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(kind);
+            output.writeUTF(clusterMembership.getNodeId());
+            if (destination != null) {
+                output.writeUTF(destination);
+            }
+            output.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode relayed message", e);
+        }
+        byte[] channel = topic.getTopic().getBytes(StandardCharsets.UTF_8);
+        byte[] envelope = bytes.toByteArray();
+        try {
+            redisTemplate.getObject().execute((RedisCallback<Long>) connection -> connection.publish(channel, envelope));
+        } catch (Exception e) {
+            log.error("Error relaying message on {}", topic.getTopic(), e);
+        }
+    }
+
+    private boolean isCrdt() {
+        return MergeEngineType.fromName(engine) == MergeEngineType.CRDT;
+    }
+
+    private static ChannelTopic channel(String documentId) {
+        return new ChannelTopic(CHANNEL_PREFIX + documentId);
+    }
+
+    /**
+     * Builds the destination {@link SimpMessagingTemplate#convertAndSendToUser} would use
+     */
+    private static String userDestination(String username, String destination) {
+        return USER_PREFIX + username.replace("/", "%2F") + destination;
+    }
+
+    private static String usernameOf(String userDestination) {
+        String rest = userDestination.substring(USER_PREFIX.length());
+        return rest.substring(0, rest.indexOf('/')).replace("%2F", "/");
+    }
+
+    /**
+     * @param destination a subscription destination
+     * @return the document of a document topic such as {@code /topic/document.{id}.ops}, or null
+     */
+    private static String documentOf(String destination) {
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return null;
+        }
+        String rest = destination.substring(TOPIC_PREFIX.length());
+        int dot = rest.indexOf('.');
+        String documentId = dot < 0 ? rest : rest.substring(0, dot);
+        return documentId.isEmpty() ? null : documentId;
+    }
+}
@@ -1,23 +1,41 @@
 package com.devlab.docseditor.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Service
+@RequiredArgsConstructor
 public class JwtService {
 
+    private final MeterRegistry meterRegistry;
+
     @Value("${application.security.jwt.secret-key}")
     private String secretKey;
     
@@ -27,8 +45,57 @@ public class JwtService {
     @Value("${application.security.jwt.refresh-token.expiration}")
     private long refreshExpiration;
 
+    @Value("${application.security.jwt.verified-cache-size:10000}")
+    private int verifiedCacheSize;
+
+    private Key signInKey;
+    private JwtParser parser;
+
+    /** Recently verified tokens by SHA-256 digest, each kept until the token expires. */
+    private Cache<String, VerifiedToken> verifiedTokens;
+
+    /** Verification times by outcome: answered from the cache, checked, or failed. */
+    private Timer cachedVerifications;
+    private Timer checkedVerifications;
+    private Timer rejectedVerifications;
+
+    /**
+     * Decodes the secret and builds the parser once; both are immutable and thread-safe
+     */
+    @PostConstruct
+    void init() {
+        signInKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secretKey));
+        parser = Jwts.parserBuilder()
+                .setSigningKey(signInKey)
+                .build();
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String digest, VerifiedToken token, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, token.expiresAt() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String digest, VerifiedToken token, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(digest, token, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String digest, VerifiedToken token, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        cachedVerifications = verificationTimer("cached");
+        checkedVerifications = verificationTimer("verified");
+        rejectedVerifications = verificationTimer("rejected");
+    }
+
     public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+        return verify(token).username();
     }
 
     public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
@@ -68,30 +135,80 @@ public class JwtService {
                 .compact();
     }
 
-    public boolean isTokenValid(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
-    }
+    /**
+     * Verifies a token once and remembers the result, so repeated requests with the same token skip the
+     * signature check and claims parsing until the token expires
+     * @param token the compact JWT
+     * @return the subject and expiry of the token
+     * @throws JwtException if the token is malformed, has an invalid signature or is expired
+     */
+    public VerifiedToken verify(String token) {
+        long start = System.nanoTime();
+        String digest = digest(token);
+        VerifiedToken verified = verifiedTokens.getIfPresent(digest);
+        if (verified != null) {
+            if (verified.expiresAt() > System.currentTimeMillis()) {
+                cachedVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return verified;
+            }
+            // Expired between the cache's clock ticks
+            verifiedTokens.invalidate(digest);
+            rejectedVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw new ExpiredJwtException(null, null, "JWT expired");
+        }
 
-    private boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+        // A single parse checks the signature and the expiry and yields the subject
+        Claims claims;
+        try {
+            claims = extractAllClaims(token);
+        } catch (RuntimeException e) {
+            rejectedVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        verified = new VerifiedToken(claims.getSubject(), claims.getExpiration().getTime());
+        verifiedTokens.put(digest, verified);
+        checkedVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return verified;
     }
 
-    private Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
+    public boolean isTokenValid(String token, UserDetails userDetails) {
+        try {
+            return verify(token).username().equals(userDetails.getUsername());
+        } catch (JwtException e) {
+            return false;
+        }
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    private Timer verificationTimer(String outcome) {
+        return Timer.builder("jwt.verifications")
+                .description("Time verifying a token, by whether it was answered from the cache, checked or rejected")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
     }
 
     private Key getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(secretKey);
-        return Keys.hmacShaKeyFor(keyBytes);
+        return signInKey;
+    }
+
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Subject and expiry of a token whose signature has been checked.
+     *
+     * @param username the subject
+     * @param expiresAt expiry in milliseconds since epoch
+     */
+    public record VerifiedToken(String username, long expiresAt) {
     }
-}
\ No newline at end of file
+}
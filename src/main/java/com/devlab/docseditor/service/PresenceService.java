@@ -0,0 +1,293 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.model.dto.websocket.PresenceMessage;
+import com.devlab.docseditor.model.session.SessionPrincipal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which users are present on a document.
+ * Presence lives in a Redis sorted set per document, with the users as members scored by the time they were last
+ * seen. Every {@code application.presence.heartbeat-interval} milliseconds a node refreshes the users of its
+ * connected sessions and sweeps members not seen for {@code application.presence.timeout} milliseconds, which
+ * only happens when the node holding their session went away. Sessions on a live node leave explicitly or when
+ * they disconnect, which includes clients that stop answering STOMP heartbeats.
+ * <p>
+ * Changes are collected per document and broadcast as one diff on {@code /topic/document.{id}.presence} every
+ * {@code application.presence.broadcast-interval} milliseconds; a joining user receives the full set once.
+ * Each change is reported by the node that caused it, or by the one sweep that removed an expired member.
+ * <p>
+ * Only users who may read a document can join it, and only sessions that joined it count as present on it, so
+ * {@link #hasJoined} also tells whether a session may share awareness such as cursors on the document.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PresenceService {
+
+    private static final String PRESENCE_PREFIX = "presence:";
+
+    /** Removes the members last seen before ARGV[1] and returns them, so that only one node reports each expiry. */
+    private static final byte[] SWEEP_SCRIPT = ("local expired = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1]) "
+            + "if #expired > 0 then redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[1]) end "
+            + "return expired").getBytes(StandardCharsets.UTF_8);
+
+    private final StringRedisTemplate redisTemplate;
+    private final DocumentTopicRelay documentTopicRelay;
+    private final SessionPrincipalService sessionPrincipalService;
+
+    @Value("${application.presence.timeout:30000}")
+    private long timeoutMillis;
+
+    /** Documents joined by each session connected to this node, by session ID. */
+    private final Map<String, Set<String>> sessionDocuments = new ConcurrentHashMap<>();
+
+    /** Number of sessions on this node per user, by document ID. */
+    private final Map<String, Map<String, Integer>> localUsers = new ConcurrentHashMap<>();
+
+    /** Changes not broadcast yet, by document ID. */
+    private final Map<String, PresenceDiff> pendingChanges = new ConcurrentHashMap<>();
+
+    /**
+     * Marks a user present on a document and sends them everyone present
+     * @param sessionId the WebSocket session ID
+     * @param principal the joining user
+     * @param documentId the document ID
+     * @return false if the user may not read the document and did not join it
+     */
+    public boolean join(String sessionId, SessionPrincipal principal, String documentId) {
+        String userId = principal.getUserId();
+        try {
+            if (documentId == null || !sessionPrincipalService.canRead(principal, documentId)) {
+                log.warn("User {} attempted to join document {} without access", userId, documentId);
+                return false;
+            }
+        } catch (Exception e) {
+            log.warn("User {} cannot join document {}: {}", userId, documentId, e.getMessage());
+            return false;
+        }
+
+        if (sessionDocuments.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(documentId)) {
+            localUsers.computeIfAbsent(documentId, id -> new ConcurrentHashMap<>()).merge(userId, 1, Integer::sum);
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            byte[] key = key(documentId);
+            List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.zSetCommands().zAdd(key, now, bytes(userId));
+                connection.keyCommands().pExpire(key, timeoutMillis);
+                connection.zSetCommands().zRangeByScore(key, now - timeoutMillis, Double.POSITIVE_INFINITY);
+                return null;
+            });
+            if (Boolean.TRUE.equals(results.get(0))) {
+                changed(documentId, userId, true);
+            }
+            documentTopicRelay.sendToUser(
+                    principal.getUsername(),
+                    "/queue/document." + documentId + ".users",
+                    results.get(2));
+        } catch (Exception e) {
+            log.error("Error joining user {} to document {}", userId, documentId, e);
+        }
+        return true;
+    }
+
+    /**
+     * Marks a user absent from a document unless another of their sessions on this node is still present
+     * @param sessionId the WebSocket session ID
+     * @param principal the leaving user
+     * @param documentId the document ID
+     */
+    public void leave(String sessionId, SessionPrincipal principal, String documentId) {
+        Set<String> documents = sessionDocuments.get(sessionId);
+        if (documents != null && documents.remove(documentId)) {
+            release(principal.getUserId(), documentId);
+        }
+    }
+
+    /**
+     * Leaves every document a closed session joined
+     * @param sessionId the WebSocket session ID
+     * @param principal the user of the session
+     * @return the IDs of the documents the session had joined
+     */
+    public Set<String> disconnect(String sessionId, SessionPrincipal principal) {
+        Set<String> documents = sessionDocuments.remove(sessionId);
+        if (documents == null) {
+            return Set.of();
+        }
+        for (String documentId : documents) {
+            release(principal.getUserId(), documentId);
+        }
+        return documents;
+    }
+
+    /**
+     * @param sessionId the WebSocket session ID
+     * @param documentId the document ID
+     * @return true if the session, which must be connected to this node, joined the document
+     */
+    public boolean hasJoined(String sessionId, String documentId) {
+        Set<String> documents = sessionDocuments.get(sessionId);
+        return documents != null && documents.contains(documentId);
+    }
+
+    /**
+     * @param documentId the document ID
+     * @return true if any user on any node is present on the document
+     */
+    public boolean isPresent(String documentId) {
+        Long present = redisTemplate.opsForZSet()
+                .count(PRESENCE_PREFIX + documentId, System.currentTimeMillis() - timeoutMillis, Double.POSITIVE_INFINITY);
+        return present != null && present > 0;
+    }
+
+    /**
+     * Refreshes the users of the sessions on this node and sweeps expired users, all documents in one pipeline
+     */
+    @Scheduled(fixedDelayString = "${application.presence.heartbeat-interval:10000}")
+    public void heartbeat() {
+        List<String> documentIds = new ArrayList<>(localUsers.keySet());
+        if (documentIds.isEmpty()) {
+            return;
+        }
+        List<List<String>> users = new ArrayList<>(documentIds.size());
+        for (String documentId : documentIds) {
+            users.add(List.copyOf(localUsers.getOrDefault(documentId, Map.of()).keySet()));
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            byte[] cutoff = bytes(Long.toString(now - timeoutMillis));
+            List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < documentIds.size(); i++) {
+                    byte[] key = key(documentIds.get(i));
+                    for (String userId : users.get(i)) {
+                        connection.zSetCommands().zAdd(key, now, bytes(userId));
+                    }
+                    connection.keyCommands().pExpire(key, timeoutMillis);
+                    connection.scriptingCommands().eval(SWEEP_SCRIPT, ReturnType.MULTI, 1, key, cutoff);
+                }
+                return null;
+            });
+
+            int result = 0;
+            for (int i = 0; i < documentIds.size(); i++) {
+                String documentId = documentIds.get(i);
+                for (String userId : users.get(i)) {
+                    // Added back after another node removed the user, e.g. when their session there closed
+                    if (Boolean.TRUE.equals(results.get(result++))) {
+                        changed(documentId, userId, true);
+                    }
+                }
+                result++;
+                if (results.get(result++) instanceof List<?> expired) {
+                    for (Object userId : expired) {
+                        changed(documentId, userId instanceof byte[] raw
+                                ? new String(raw, StandardCharsets.UTF_8) : userId.toString(), false);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error refreshing presence of {} documents", documentIds.size(), e);
+        }
+    }
+
+    /**
+     * Broadcasts the changes collected since the previous call, one message per document
+     */
+    @Scheduled(fixedDelayString = "${application.presence.broadcast-interval:1000}")
+    public void broadcast() {
+        for (String documentId : pendingChanges.keySet()) {
+            PresenceDiff diff = pendingChanges.remove(documentId);
+            if (diff == null || diff.isEmpty()) {
+                continue;
+            }
+            try {
+                documentTopicRelay.send(documentId,
+                        "/topic/document." + documentId + ".presence",
+                        new PresenceMessage(documentId, List.copyOf(diff.joined), List.copyOf(diff.left),
+                                System.currentTimeMillis()));
+            } catch (Exception e) {
+                log.error("Error broadcasting presence of document {}", documentId, e);
+            }
+        }
+    }
+
+    private void release(String userId, String documentId) {
+        boolean[] lastSession = new boolean[1];
+        localUsers.computeIfPresent(documentId, (id, users) -> {
+            lastSession[0] = users.merge(userId, -1, Integer::sum) <= 0;
+            if (lastSession[0]) {
+                users.remove(userId);
+            }
+            return users.isEmpty() ? null : users;
+        });
+        if (!lastSession[0]) {
+            return;
+        }
+
+        try {
+            Long removed = redisTemplate.opsForZSet().remove(PRESENCE_PREFIX + documentId, userId);
+            if (removed != null && removed > 0) {
+                changed(documentId, userId, false);
+            }
+        } catch (Exception e) {
+            log.error("Error removing user {} from document {}", userId, documentId, e);
+        }
+    }
+
+    private void changed(String documentId, String userId, boolean joined) {
+        pendingChanges.compute(documentId, (id, diff) -> {
+            diff = diff != null ? diff : new PresenceDiff();
+            diff.record(userId, joined);
+            return diff;
+        });
+    }
+
+    private static byte[] key(String documentId) {
+        return bytes(PRESENCE_PREFIX + documentId);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Net change of a document's users within one broadcast interval: a user who joins and leaves again
+     * cancels out, as does one who leaves and comes back.
+     */
+    private static class PresenceDiff {
+        private final Set<String> joined = new LinkedHashSet<>();
+        private final Set<String> left = new LinkedHashSet<>();
+
+        void record(String userId, boolean joins) {
+            if (joins) {
+                if (!left.remove(userId)) {
+                    joined.add(userId);
+                }
+            } else if (!joined.remove(userId)) {
+                left.add(userId);
+            }
+        }
+
+        boolean isEmpty() {
+            return joined.isEmpty() && left.isEmpty();
+        }
+    }
+}
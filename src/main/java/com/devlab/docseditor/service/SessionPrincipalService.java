@@ -0,0 +1,151 @@
+package com.devlab.docseditor.service;
+
+import com.devlab.docseditor.model.entity.CollaborativeDocument;
+import com.devlab.docseditor.model.entity.User;
+import com.devlab.docseditor.model.session.DocumentAccessChanged;
+import com.devlab.docseditor.model.session.SessionPrincipal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds users to WebSocket sessions and caches their roles on documents.
+ * The user is resolved once when the session connects and stored in the session attributes; a role is read
+ * from the database the first time a session touches a document. When a document is shared, the cached role
+ * of the affected user is evicted from every session on this node and, in a cluster, on every other node.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SessionPrincipalService implements MessageListener {
+
+    public static final String SESSION_ATTRIBUTE = "sessionPrincipal";
+
+    private static final String ACCESS_CHANNEL = "document-access-changed";
+
+    private final UserService userService;
+    private final DocumentService documentService;
+    private final ClusterMembership clusterMembership;
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final ObjectProvider<RedisMessageListenerContainer> listenerContainer;
+
+    /** Principals of the sessions connected to this node, by session ID. */
+    private final Map<String, SessionPrincipal> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Resolves the user of a connecting session and stores it in the session attributes
+     * @param sessionId the WebSocket session ID
+     * @param sessionAttributes the session attributes
+     * @param username the authenticated username
+     */
+    public void bind(String sessionId, Map<String, Object> sessionAttributes, String username) {
+        User user = userService.findByUsername(username);
+        SessionPrincipal principal = new SessionPrincipal(user.getId(), user.getUsername());
+        sessionAttributes.put(SESSION_ATTRIBUTE, principal);
+        sessions.put(sessionId, principal);
+    }
+
+    /**
+     * @param sessionAttributes the attributes of the session a frame arrived on, may be null
+     * @return the principal bound when the session connected, or null if it did not authenticate
+     */
+    public SessionPrincipal fromSession(Map<String, Object> sessionAttributes) {
+        return sessionAttributes != null ? (SessionPrincipal) sessionAttributes.get(SESSION_ATTRIBUTE) : null;
+    }
+
+    /**
+     * Gets the role of a user on a document, reading it from the database only if it is not cached yet
+     * @param principal the principal
+     * @param documentId the document ID
+     * @return the role, or {@link SessionPrincipal#NONE} without access
+     */
+    public String roleOn(SessionPrincipal principal, String documentId) {
+        String role = principal.getRole(documentId);
+        if (role == null) {
+            CollaborativeDocument document = documentService.getDocumentById(documentId);
+            role = principal.getUserId().equals(document.getOwnerId())
+                    ? SessionPrincipal.OWNER
+                    : document.getAccessRoles().get(principal.getUserId());
+            principal.cacheRole(documentId, role);
+            role = principal.getRole(documentId);
+        }
+        return role;
+    }
+
+    /**
+     * @param principal the principal
+     * @param documentId the document ID
+     * @return true if the user may edit the document
+     */
+    public boolean canEdit(SessionPrincipal principal, String documentId) {
+        return SessionPrincipal.canEdit(roleOn(principal, documentId));
+    }
+
+    /**
+     * @param principal the principal
+     * @param documentId the document ID
+     * @return true if the user may read the document
+     */
+    public boolean canRead(SessionPrincipal principal, String documentId) {
+        return SessionPrincipal.canRead(roleOn(principal, documentId));
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        sessions.remove(event.getSessionId());
+    }
+
+    /**
+     * Evicts a changed role here and tells the other nodes to do the same
+     * @param event the change
+     */
+    @EventListener
+    public void onAccessChanged(DocumentAccessChanged event) {
+        evict(event.documentId(), event.userId());
+        if (clusterMembership.isClustered()) {
+            try {
+                redisTemplate.getObject().convertAndSend(ACCESS_CHANNEL, event.documentId() + ":" + event.userId());
+            } catch (Exception e) {
+                log.error("Error publishing access change of document {}", event.documentId(), e);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void listenForAccessChanges() {
+        if (clusterMembership.isClustered()) {
+            listenerContainer.getObject().addMessageListener(this, new ChannelTopic(ACCESS_CHANNEL));
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String change = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = change.indexOf(':');
+        if (separator > 0) {
+            evict(change.substring(0, separator), change.substring(separator + 1));
+        }
+    }
+
+    private void evict(String documentId, String userId) {
+        for (SessionPrincipal principal : sessions.values()) {
+            if (principal.getUserId().equals(userId)) {
+                principal.evictRole(documentId);
+            }
+        }
+        log.debug("Evicted cached role of user {} on document {}", userId, documentId);
+    }
+}
@@ -16,6 +16,8 @@ import java.util.Collections;
 @RequiredArgsConstructor
 public class UserService implements UserDetailsService {
 
+    private static final String USER_AUTHORITY = "USER";
+
     private final UserRepository userRepository;
 
     @Override
@@ -26,7 +28,20 @@ public class UserService implements UserDetailsService {
         return new org.springframework.security.core.userdetails.User(
                 user.getUsername(),
                 user.getPassword(),
-                Collections.singletonList(new SimpleGrantedAuthority("USER"))
+                Collections.singletonList(new SimpleGrantedAuthority(USER_AUTHORITY))
+        );
+    }
+
+    /**
+     * Builds the principal of a user authenticated by a verified token, without loading the user
+     * @param username the username from the token
+     * @return user details with the user's authorities and no password
+     */
+    public UserDetails principalFor(String username) {
+        return new org.springframework.security.core.userdetails.User(
+                username,
+                "",
+                Collections.singletonList(new SimpleGrantedAuthority(USER_AUTHORITY))
         );
     }
 
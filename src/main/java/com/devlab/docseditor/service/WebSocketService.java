@@ -1,49 +1,44 @@
 package com.devlab.docseditor.service;
 
+import com.devlab.docseditor.engine.ot.AppliedOperation;
+import com.devlab.docseditor.engine.ot.TextOperation;
+import com.devlab.docseditor.exception.StaleRevisionException;
+import com.devlab.docseditor.model.dto.websocket.DocumentOperationMessage;
 import com.devlab.docseditor.model.dto.websocket.DocumentUpdateMessage;
-import com.devlab.docseditor.model.entity.CollaborativeDocument;
+import com.devlab.docseditor.model.dto.websocket.OperationAckMessage;
+import com.devlab.docseditor.model.session.ActiveDocument;
+import com.devlab.docseditor.model.session.RemoteDocumentUpdate;
+import com.devlab.docseditor.model.session.SessionPrincipal;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.Optional;
+
 @RequiredArgsConstructor
 @Service
 @Slf4j
 public class WebSocketService {
 
-    private final SimpMessagingTemplate messagingTemplate;
-    private final DocumentService documentService;
-    private final CacheService cacheService;
-    private final UserService userService;
+    private final PresenceService presenceService;
+    private final SessionPrincipalService sessionPrincipalService;
+    private final ActiveDocumentRegistry activeDocumentRegistry;
+    private final DocumentBroadcaster documentBroadcaster;
+    private final DocumentTopicRelay documentTopicRelay;
 
-    public void handleDocumentLoad(DocumentUpdateMessage message) {
+    public void handleDocumentLoad(SessionPrincipal principal, DocumentUpdateMessage message) {
         String documentId = message.getDocumentId();
-        String username = message.getUserId();
-        String userId = userService.findByUsername(username).getId();
+        String username = principal.getUsername();
+        String userId = principal.getUserId();
 
         log.debug("User {} requested to load document {}", userId, documentId);
 
         try {
-            String content = cacheService.getCachedDocumentContent(documentId);
-
-            if (content == null) {
-                CollaborativeDocument document = documentService.getDocumentById(documentId);
-                content = document.getContent();
-                cacheService.cacheDocumentContent(documentId, content);
-            }
+            ActiveDocument.Snapshot snapshot = activeDocumentRegistry.getOrLoad(documentId).snapshot();
 
-            DocumentUpdateMessage contentMessage = new DocumentUpdateMessage(
-                    documentId,
-                    content,
-                    "system",
-                    System.currentTimeMillis());
-
-            messagingTemplate.convertAndSendToUser(
-                    userId,
-                    "/queue/document." + documentId + ".content",
-                    contentMessage);
+            sendContent(username, documentId, snapshot);
 
             log.debug("Sent document content to user {} for document {}", userId, documentId);
 
@@ -52,96 +47,184 @@ public class WebSocketService {
         }
     }
 
-    public void handleDocumentUpdate(DocumentUpdateMessage message) {
+    public void handleDocumentUpdate(SessionPrincipal principal, DocumentUpdateMessage message) {
         String documentId = message.getDocumentId();
-        String username = message.getUserId();
-        String userId = userService.findByUsername(username).getId();
+        String username = principal.getUsername();
+        String userId = principal.getUserId();
         String newContent = message.getContent();
+        message.setUserId(username);
 
         log.debug("Received update for document {} from user {}", documentId, userId);
 
         try {
-            CollaborativeDocument document = documentService.getDocumentById(documentId);
-
-            if (!userId.equals(document.getOwnerId()) && !"editor".equals(document.getAccessRoles().get(userId))) {
+            if (!sessionPrincipalService.canEdit(principal, documentId)) {
                 log.warn("User {} attempted to edit document {} without permission", userId, documentId);
                 return;
             }
 
-            cacheService.addActiveUser(documentId, userId);
+            ActiveDocument activeDocument = activeDocumentRegistry.lockForEdit(documentId);
+            try {
+                AppliedOperation replacement = activeDocument.replaceContent(newContent);
+                activeDocument.markEditedBy(userId);
+                documentTopicRelay.publishUpdate(documentId, replacement.update());
+
+                long revision = replacement.revision();
+                message.setRevision(revision);
+                message.setContent(newContent);
+
+                // Keep operation-based clients in sync with the full replacement
+                documentBroadcaster.publishOperation(documentId,
+                        new DocumentOperationMessage(documentId, replacement.operation(), revision, null,
+                                username, message.getTimestamp()));
+                documentBroadcaster.publishContent(documentId, message);
+            } finally {
+                activeDocument.getSequenceLock().unlock();
+            }
 
-            cacheService.cacheDocumentContent(documentId, newContent);
+            // Updates made over REST load documents nobody is editing; write them now instead of keeping them live
+            if (!presenceService.isPresent(documentId)) {
+                activeDocumentRegistry.remove(documentId);
+            }
 
-            message.setContent(newContent);
-            messagingTemplate.convertAndSend("/topic/document." + documentId, message);
+        } catch (Exception e) {
+            log.error("Error processing document update", e);
+        }
+    }
+
+    public void handleDocumentOperation(SessionPrincipal principal, DocumentOperationMessage message) {
+        String documentId = message.getDocumentId();
+        String username = principal.getUsername();
+        String userId = principal.getUserId();
+        TextOperation operation = message.getOperation();
+        message.setUserId(username);
 
-            if (Math.random() < 0.8) { // 80% chance to save on each update
-                documentService.updateDocument(documentId, newContent, userId);
-                log.debug("Saved document {} to database", documentId);
+        log.debug("Received operation for document {} from user {}", documentId, userId);
+
+        try {
+            if (!sessionPrincipalService.canEdit(principal, documentId)) {
+                log.warn("User {} attempted to edit document {} without permission", userId, documentId);
+                return;
+            }
+
+            if (operation == null || operation.isNoop()) {
+                return;
+            }
+
+            ActiveDocument activeDocument = activeDocumentRegistry.lockForEdit(documentId);
+            try {
+                AppliedOperation applied = activeDocument.applyClientOperation(message.getRevision(), operation);
+                activeDocument.markEditedBy(userId);
+                documentTopicRelay.publishUpdate(documentId, applied.update());
+
+                message.setOperation(applied.operation());
+                message.setRevision(applied.revision());
+                // Acknowledge only after the batch holding the operation went out, so the sender
+                // has seen every earlier revision by the time it gets the ack
+                OperationAckMessage ack = new OperationAckMessage(documentId, message.getOperationId(),
+                        applied.revision(), System.currentTimeMillis());
+                documentBroadcaster.publishOperation(documentId, message).whenComplete((sent, failure) -> {
+                    if (failure == null) {
+                        documentTopicRelay.sendToUser(
+                                username,
+                                "/queue/document." + documentId + ".ack",
+                                ack);
+                    } else {
+                        // Other editors may not have the operation; the author resyncs from the content
+                        sendContent(username, documentId, activeDocument.snapshot());
+                    }
+                });
+            } catch (StaleRevisionException | IllegalArgumentException e) {
+                log.warn("Rejected operation for document {} from user {}: {}", documentId, userId, e.getMessage());
+                sendContent(username, documentId, activeDocument.snapshot());
+            } finally {
+                activeDocument.getSequenceLock().unlock();
             }
 
         } catch (Exception e) {
-            log.error("Error processing document update", e);
+            log.error("Error processing document operation", e);
         }
     }
 
-    public void handleUserJoin(DocumentUpdateMessage message) {
+    public void handleUserJoin(SessionPrincipal principal, DocumentUpdateMessage message) {
         String documentId = message.getDocumentId();
-        String username = message.getUserId();
-        String userId = userService.findByUsername(username).getId();
+        String username = principal.getUsername();
+        String userId = principal.getUserId();
 
         log.debug("User {} joined document {}", userId, documentId);
 
         try {
-            cacheService.addActiveUser(documentId, userId);
-
-            messagingTemplate.convertAndSend(
-                    "/topic/document." + documentId + ".join",
-                    userId);
-
-            messagingTemplate.convertAndSendToUser(
-                    userId,
-                    "/queue/document." + documentId + ".users",
-                    cacheService.getActiveUsers(documentId));
-
-            String cachedContent = cacheService.getCachedDocumentContent(documentId);
-            if (cachedContent != null) {
-                DocumentUpdateMessage contentMessage = new DocumentUpdateMessage(
-                        documentId,
-                        cachedContent,
-                        "system",
-                        System.currentTimeMillis());
-                messagingTemplate.convertAndSendToUser(
-                        userId,
-                        "/queue/document." + documentId + ".content",
-                        contentMessage);
-                log.debug("Sent cached content to user {} for document {}", userId, documentId);
-            }
+            sendContent(username, documentId, activeDocumentRegistry.getOrLoad(documentId).snapshot());
+            log.debug("Sent content to user {} for document {}", userId, documentId);
 
         } catch (Exception e) {
             log.error("Error processing user join", e);
         }
     }
 
-    public void handleUserLeave(DocumentUpdateMessage message) {
+    public void handleUserLeave(SessionPrincipal principal, DocumentUpdateMessage message) {
         String documentId = message.getDocumentId();
-        String userId = message.getUserId();
+        String userId = principal.getUserId();
 
         log.debug("User {} left document {}", userId, documentId);
 
         try {
-            // Remove from active users
-            cacheService.removeActiveUser(documentId, userId);
-
-            // Notify other users
-            messagingTemplate.convertAndSend(
-                    "/topic/document." + documentId + ".leave",
-                    userId);
+            // Last editor left: write the document and free its memory
+            if (!presenceService.isPresent(documentId)) {
+                activeDocumentRegistry.remove(documentId);
+            }
 
         } catch (Exception e) {
             log.error("Error processing user leave", e);
         }
     }
 
+    /**
+     * Merges a CRDT update made on another node into the local replica and broadcasts the resulting change
+     * and content to the editors connected to this node
+     * @param event the relayed update
+     */
+    @EventListener
+    public void handleRemoteUpdate(RemoteDocumentUpdate event) {
+        String documentId = event.documentId();
+        Optional<ActiveDocument> activeDocument = activeDocumentRegistry.find(documentId);
+        if (activeDocument.isEmpty() || !activeDocument.get().isReplicated()) {
+            return;
+        }
+
+        activeDocument.get().getSequenceLock().lock();
+        try {
+            if (activeDocument.get().isUnloaded()) {
+                // Written with its replica state; a node that loads it again syncs the update from its peers
+                return;
+            }
+            AppliedOperation applied = activeDocument.get().applyRemoteUpdate(event.update());
+            if (applied == null) {
+                return;
+            }
+            documentBroadcaster.publishOperation(documentId,
+                    new DocumentOperationMessage(documentId, applied.operation(), applied.revision(), null,
+                            null, System.currentTimeMillis()));
+            // Content frames are not relayed in CRDT mode; send this node's content under its own revision
+            documentBroadcaster.publishSnapshot(documentId, activeDocument.get().snapshot());
+        } catch (Exception e) {
+            log.error("Error merging remote update for document {}", documentId, e);
+        } finally {
+            activeDocument.get().getSequenceLock().unlock();
+        }
+    }
 
+    private void sendContent(String username, String documentId, ActiveDocument.Snapshot snapshot) {
+        DocumentUpdateMessage contentMessage = new DocumentUpdateMessage(
+                documentId,
+                snapshot.content().toString(),
+                "system",
+                System.currentTimeMillis(),
+                snapshot.revision());
+
+        // User destinations resolve against the principal name, which is the username
+        documentTopicRelay.sendToUser(
+                username,
+                "/queue/document." + documentId + ".content",
+                contentMessage);
+    }
 }
@@ -0,0 +1,156 @@
+package com.devlab.docseditor.utils;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of document content for Redis: the UTF-8 bytes behind a one-byte header, compressed when
+ * they are at least {@code threshold} bytes long.
+ * Compressed values store the uncompressed length after the header so they can be decoded into a buffer of
+ * the right size. Values that do not start with a known header, such as JSON written by an older node, decode
+ * to null and are treated as a cache miss.
+ */
+public class ContentCodec {
+
+    private static final byte RAW = 0x01;
+    private static final byte LZ4 = 0x02;
+    private static final byte DEFLATE = 0x03;
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestJavaInstance();
+
+    /**
+     * Compression applied to content of at least the threshold size.
+     */
+    public enum Compression {
+        NONE, LZ4, DEFLATE;
+
+        public static Compression fromName(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private final Compression compression;
+    private final int threshold;
+    private final LZ4Compressor lz4Compressor = LZ4_FACTORY.fastCompressor();
+    private final LZ4SafeDecompressor lz4Decompressor = LZ4_FACTORY.safeDecompressor();
+
+    /**
+     * @param compression the compression of large values
+     * @param threshold the size in bytes from which values are compressed
+     */
+    public ContentCodec(Compression compression, int threshold) {
+        this.compression = compression;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Encodes content
+     * @param content the content
+     * @return the encoded bytes
+     */
+    public byte[] encode(String content) {
+        byte[] utf8 = content.getBytes(StandardCharsets.UTF_8);
+        if (compression == Compression.NONE || utf8.length < threshold) {
+            return withHeader(RAW, utf8);
+        }
+        byte[] compressed = compression == Compression.LZ4 ? lz4(utf8) : deflate(utf8);
+        if (compressed.length >= utf8.length) {
+            // Incompressible content is cheaper to store as is
+            return withHeader(RAW, utf8);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + compressed.length);
+        buffer.put(compression == Compression.LZ4 ? LZ4 : DEFLATE).putInt(utf8.length).put(compressed);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes content encoded by any compression setting
+     * @param bytes the encoded bytes, may be null
+     * @return the content, or null if there is none or it is not in this format
+     */
+    public String decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        switch (bytes[0]) {
+            case RAW:
+                return new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+            case LZ4:
+            case DEFLATE:
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                byte header = buffer.get();
+                byte[] utf8 = new byte[buffer.getInt()];
+                int offset = buffer.position();
+                if (header == LZ4) {
+                    if (lz4Decompressor.decompress(bytes, offset, bytes.length - offset, utf8, 0) != utf8.length) {
+                        throw new IllegalArgumentException("Truncated compressed content");
+                    }
+                } else {
+                    inflate(bytes, offset, utf8);
+                }
+                return new String(utf8, StandardCharsets.UTF_8);
+            default:
+                return null;
+        }
+    }
+
+    private byte[] lz4(byte[] utf8) {
+        byte[] compressed = new byte[lz4Compressor.maxCompressedLength(utf8.length)];
+        int length = lz4Compressor.compress(utf8, 0, utf8.length, compressed, 0, compressed.length);
+        return Arrays.copyOf(compressed, length);
+    }
+
+    private static byte[] deflate(byte[] utf8) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(utf8.length / 2);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                output.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate(byte[] bytes, int offset, byte[] utf8) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, bytes.length - offset);
+            int length = 0;
+            while (length < utf8.length && !inflater.finished()) {
+                int inflated = inflater.inflate(utf8, length, utf8.length - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != utf8.length) {
+                throw new IllegalArgumentException("Truncated compressed content");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] withHeader(byte header, byte[] body) {
+        byte[] bytes = new byte[1 + body.length];
+        bytes[0] = header;
+        System.arraycopy(body, 0, bytes, 1, body.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,72 @@
+package com.devlab.docseditor.utils;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on a shared executor, one at a time and in submission order per key.
+ * Tasks of different keys run in parallel, so a slow task only holds back the tasks submitted with its key.
+ * Each key with queued tasks occupies at most one thread of the executor; its queue is dropped once it drains.
+ */
+public final class KeyedSerialExecutor {
+
+    private final Executor executor;
+    /** Tasks per key not finished yet; the head is the running one. */
+    private final Map<String, Queue<Runnable>> queues = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor runs the tasks; must not reject them
+     */
+    public KeyedSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs a task after every task submitted earlier with the same key
+     * @param key the key, e.g. a document ID
+     * @param task the task
+     */
+    public void execute(String key, Runnable task) {
+        boolean[] idle = new boolean[1];
+        queues.compute(key, (ignored, queue) -> {
+            Queue<Runnable> tasks = queue;
+            if (tasks == null) {
+                tasks = new ArrayDeque<>();
+                idle[0] = true;
+            }
+            tasks.add(task);
+            return tasks;
+        });
+        if (idle[0]) {
+            try {
+                executor.execute(() -> drain(key, task));
+            } catch (RuntimeException e) {
+                queues.remove(key);
+                throw e;
+            }
+        }
+    }
+
+    private void drain(String key, Runnable first) {
+        Runnable task = first;
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Keep draining; a failed task must not strand the tasks queued behind it
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+            Runnable[] next = new Runnable[1];
+            queues.computeIfPresent(key, (ignored, tasks) -> {
+                tasks.poll();
+                next[0] = tasks.peek();
+                return next[0] != null ? tasks : null;
+            });
+            task = next[0];
+        }
+    }
+}
@@ -1,71 +1,225 @@
 package com.devlab.docseditor.utils;
 
+import com.devlab.docseditor.engine.ot.TextOperation;
 import com.devlab.docseditor.model.entity.CollaborativeDocument;
 import com.devlab.docseditor.model.entity.DocumentVersion;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
+/**
+ * Version history with keyframes and deltas: every {@code keyframeInterval}-th version stores the full
+ * content, the versions in between only store a compact binary diff from their predecessor.
+ * Versions live in their own collection; the document only keeps the counters needed to create the next one.
+ * Any version is reconstructed from the nearest keyframe before it with fewer than
+ * {@code keyframeInterval} delta applications. Versions are looked up by number or time through the indexes of
+ * the version collection, never by loading a history into memory.
+ */
 @Slf4j
 @Component
 public class VersioningUtil {
 
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 50;
+
+    private static final int RETAIN = 0;
+    private static final int DELETE = 1;
+    private static final int INSERT = 2;
+
     /**
-     * Creates a new version of the document
-     * @param document the document to version
+     * Creates the next version of the document and advances the document's version counters
+     * @param document the document to version, still holding the previous content
      * @param newContent the new content
      * @param userId the ID of the user making the change
-     * @return the new version
+     * @return the new version, to be saved in the version collection
      */
     public static DocumentVersion createNewVersion(CollaborativeDocument document, String newContent, String userId) {
-        DocumentVersion newVersion = DocumentVersion.builder()
-                .contentSnapshot(newContent)
+        return createNewVersion(document, newContent, userId, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Creates the next version of the document and advances the document's version counters
+     * @param document the document to version, still holding the previous content
+     * @param newContent the new content
+     * @param userId the ID of the user making the change
+     * @param keyframeInterval the maximum distance between two versions storing the full content
+     * @return the new version, to be saved in the version collection
+     */
+    public static DocumentVersion createNewVersion(CollaborativeDocument document, String newContent, String userId,
+                                                   int keyframeInterval) {
+        String content = newContent != null ? newContent : "";
+        int versionNumber = document.getVersionCount() + 1;
+        DocumentVersion.DocumentVersionBuilder builder = DocumentVersion.builder()
+                .id(versionId(document.getId(), versionNumber))
+                .documentId(document.getId())
+                .versionNumber(versionNumber)
                 .editedByUserId(userId)
-                .timestamp(LocalDateTime.now())
-                .build();
-        
-        document.getVersions().add(newVersion);
-        return newVersion;
+                .timestamp(nextTimestamp(document.getLastVersionTime()));
+
+        boolean keyframe;
+        if (versionNumber == 1 || versionNumber - document.getLastKeyframeVersion() >= keyframeInterval) {
+            builder.contentSnapshot(content)
+                    .changeSize(versionNumber == 1 ? content.length() : changeSize(document.getContent(), content));
+            keyframe = true;
+        } else {
+            TextOperation diff = TextOperation.diff(document.getContent(), content);
+            byte[] delta = encodeDelta(diff);
+            // A delta bigger than the content itself is better stored as a keyframe
+            keyframe = delta.length >= content.length();
+            if (keyframe) {
+                builder.contentSnapshot(content);
+            } else {
+                builder.delta(delta);
+            }
+            builder.changeSize(changeSize(diff));
+        }
+        DocumentVersion version = builder.build();
+
+        document.setVersionCount(versionNumber);
+        document.setLastVersionTime(version.getTimestamp());
+        if (keyframe) {
+            document.setLastKeyframeVersion(versionNumber);
+        }
+        return version;
+    }
+
+    /**
+     * Timestamps versions by the wall clock, but never before the previous version: the clock may be set back,
+     * and looking up a version by time relies on timestamps increasing with version numbers
+     * @param previous the timestamp of the previous version, or null for the first version
+     * @return the timestamp of the next version
+     */
+    private static LocalDateTime nextTimestamp(LocalDateTime previous) {
+        LocalDateTime now = LocalDateTime.now();
+        return previous != null && previous.isAfter(now) ? previous : now;
+    }
+
+    /**
+     * @param documentId the document ID
+     * @param versionNumber the version number
+     * @return the ID of the version in the version collection
+     */
+    public static String versionId(String documentId, int versionNumber) {
+        return documentId + ":" + versionNumber;
+    }
+
+    /**
+     * Reconstructs the content of the last version of a chain
+     * @param chain consecutive versions starting at a keyframe, oldest first
+     * @return the content of the last version
+     * @throws IllegalArgumentException if the chain is empty or does not start at a keyframe
+     */
+    public static String reconstructContent(List<DocumentVersion> chain) {
+        if (chain.isEmpty() || !chain.get(0).isKeyframe()) {
+            throw new IllegalArgumentException("Version chain must start at a keyframe");
+        }
+        String content = chain.get(0).getContentSnapshot();
+        for (int i = 1; i < chain.size(); i++) {
+            DocumentVersion version = chain.get(i);
+            content = version.isKeyframe() ? version.getContentSnapshot() : applyDelta(content, version.getDelta());
+        }
+        return content;
     }
-    
+
     /**
-     * Gets the latest version of a document
-     * @param document the document
-     * @return the latest version, or empty if no versions exist
+     * Encodes an operation as varint-tagged components: retain and delete counts, UTF-8 inserts
+     * @param operation the operation
+     * @return the encoded delta
      */
-    public Optional<DocumentVersion> getLatestVersion(CollaborativeDocument document) {
-        List<DocumentVersion> versions = document.getVersions();
-        if (versions == null || versions.isEmpty()) {
-            return Optional.empty();
+    public static byte[] encodeDelta(TextOperation operation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        for (int i = 0; i < operation.size(); i++) {
+            if (operation.isInsert(i)) {
+                byte[] text = operation.insertedText(i).getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, text.length << 2 | INSERT);
+                out.write(text, 0, text.length);
+            } else {
+                writeVarInt(out, operation.length(i) << 2 | (operation.isRetain(i) ? RETAIN : DELETE));
+            }
         }
-        
-        return versions.stream()
-                .max(Comparator.comparing(DocumentVersion::getTimestamp));
+        return out.toByteArray();
     }
-    
+
     /**
-     * Gets a specific version of a document by index
-     * @param document the document
-     * @param versionIndex the index of the version (0 is the oldest)
-     * @return the version at the specified index, or empty if index is out of bounds
+     * Applies a delta produced by {@link #encodeDelta(TextOperation)}
+     * @param content the content of the previous version
+     * @param delta the encoded delta
+     * @return the content of the next version
+     * @throws IllegalArgumentException if the delta is malformed or does not fit the content
      */
-    public Optional<DocumentVersion> getVersionByIndex(CollaborativeDocument document, int versionIndex) {
-        List<DocumentVersion> versions = document.getVersions();
-        if (versions == null || versionIndex < 0 || versionIndex >= versions.size()) {
-            return Optional.empty();
+    public static String applyDelta(String content, byte[] delta) {
+        if (delta == null) {
+            throw new IllegalArgumentException("Version has neither content nor delta");
         }
+        StringBuilder result = new StringBuilder(content.length() + 16);
+        int position = 0;
+        int offset = 0;
+        while (offset < delta.length) {
+            int header = 0;
+            int shift = 0;
+            byte current;
+            do {
+                if (offset >= delta.length || shift > 28) {
+                    throw new IllegalArgumentException("Malformed version delta");
+                }
+                current = delta[offset++];
+                header |= (current & 0x7F) << shift;
+                shift += 7;
+            } while ((current & 0x80) != 0);
 
-        List<DocumentVersion> sortedVersions = versions.stream()
-                .sorted(Comparator.comparing(DocumentVersion::getTimestamp))
-                .toList();
-        
-        return Optional.of(sortedVersions.get(versionIndex));
+            int length = header >>> 2;
+            switch (header & 3) {
+                case RETAIN -> {
+                    if (position + length > content.length()) {
+                        throw new IllegalArgumentException("Version delta does not fit the content");
+                    }
+                    result.append(content, position, position + length);
+                    position += length;
+                }
+                case DELETE -> position += length;
+                case INSERT -> {
+                    if (offset + length > delta.length) {
+                        throw new IllegalArgumentException("Malformed version delta");
+                    }
+                    result.append(new String(delta, offset, length, StandardCharsets.UTF_8));
+                    offset += length;
+                }
+                default -> throw new IllegalArgumentException("Malformed version delta");
+            }
+        }
+        if (position != content.length()) {
+            throw new IllegalArgumentException("Version delta does not fit the content");
+        }
+        return result.toString();
+    }
+
+    private static int changeSize(String oldContent, String newContent) {
+        return changeSize(TextOperation.diff(oldContent, newContent));
     }
-    
+
+    private static int changeSize(TextOperation operation) {
+        int changed = 0;
+        for (int i = 0; i < operation.size(); i++) {
+            if (!operation.isRetain(i)) {
+                changed += operation.length(i);
+            }
+        }
+        return changed;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
     /**
      * Calculates the number of changes between two versions
      * @param oldContent the old content
@@ -0,0 +1,32 @@
+package com.devlab.docseditor.utils;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * Executors on virtual threads, used when {@code spring.threads.virtual.enabled} is true and the JVM supports
+ * them. The application targets Java 17, where the setting is ignored and platform thread pools are used.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param enabled the value of {@code spring.threads.virtual.enabled}
+     * @return true if virtual threads are enabled and the JVM runs them (Java 21 or later)
+     */
+    public static boolean isEnabled(boolean enabled) {
+        return enabled && Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * @param threadNamePrefix the prefix of the thread names
+     * @return an executor that starts a new virtual thread per task
+     */
+    public static TaskExecutor perTaskExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+}
@@ -0,0 +1,123 @@
+package com.devlab.docseditor.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class BackpressureWebSocketSessionTest {
+
+    private final WebSocketSession delegate = mock(WebSocketSession.class);
+    private final List<Runnable> pendingFlushes = new ArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ThreadPoolTaskScheduler watchdog = new ThreadPoolTaskScheduler();
+
+    private Counter dropped;
+    private Counter terminated;
+    private BackpressureWebSocketSession session;
+
+    @BeforeEach
+    void setUp() {
+        dropped = registry.counter("dropped");
+        terminated = registry.counter("terminated");
+        watchdog.initialize();
+        // The client does not read until the test runs the queued flush
+        session = new BackpressureWebSocketSession(delegate, pendingFlushes::add, watchdog, 300, 10_000,
+                dropped, terminated);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchdog.shutdown();
+    }
+
+    @Test
+    void oldCursorFramesAreDroppedBeforeContent() throws Exception {
+        TextMessage content = frame("/topic/document.d1.ops", 100);
+        TextMessage staleCursor = frame("/topic/document.d1.cursors", 100);
+        TextMessage cursor = frame("/topic/document.d1.cursors", 99);
+        TextMessage presence = frame("/topic/document.d1.presence", 50);
+
+        session.sendMessage(content);
+        session.sendMessage(staleCursor);
+        session.sendMessage(cursor);
+        session.sendMessage(presence);
+        pendingFlushes.forEach(Runnable::run);
+
+        assertEquals(1, dropped.count());
+        InOrder order = inOrder(delegate);
+        order.verify(delegate).sendMessage(content);
+        order.verify(delegate).sendMessage(cursor);
+        order.verify(delegate).sendMessage(presence);
+        verify(delegate, never()).sendMessage(staleCursor);
+    }
+
+    @Test
+    void sessionIsTerminatedWhenContentDoesNotFit() throws Exception {
+        session.sendMessage(frame("/topic/document.d1.ops", 200));
+
+        assertThrows(SessionLimitExceededException.class,
+                () -> session.sendMessage(frame("/topic/document.d1.ops", 200)));
+        assertEquals(1, terminated.count());
+
+        session.sendMessage(frame("/topic/document.d1.ops", 10));
+        pendingFlushes.forEach(Runnable::run);
+        verify(delegate, never()).sendMessage(any());
+    }
+
+    @Test
+    void stalledWriteIsTimedOutWithoutFurtherSends() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            try {
+                // A client that stopped reading: the write would block far beyond the limit
+                Thread.sleep(60_000);
+            } finally {
+                released.countDown();
+            }
+            return null;
+        }).when(delegate).sendMessage(any());
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            BackpressureWebSocketSession stalled = new BackpressureWebSocketSession(delegate, sender, watchdog,
+                    300, 100, dropped, terminated);
+            stalled.sendMessage(frame("/topic/document.d1.ops", 100));
+
+            verify(delegate, timeout(5_000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+            assertTrue(released.await(5, TimeUnit.SECONDS), "the sender thread is still blocked");
+            assertEquals(1, terminated.count());
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    private static TextMessage frame(String destination, int size) {
+        String headers = "MESSAGE\ndestination:" + destination + "\ncontent-type:application/json\n\n";
+        return new TextMessage(headers + "x".repeat(Math.max(0, size - headers.length())) + "\0");
+    }
+}
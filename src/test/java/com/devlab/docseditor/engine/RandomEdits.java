@@ -0,0 +1,63 @@
+package com.devlab.docseditor.engine;
+
+import com.devlab.docseditor.engine.ot.TextOperation;
+
+import java.util.Random;
+
+/**
+ * Random texts and operations for the randomized engine tests, drawn from the test's seeded {@link Random}.
+ */
+public class RandomEdits {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz ";
+
+    private final Random random;
+    private final int maxLength;
+
+    /**
+     * @param random the source of randomness, shared with the test so that a seed reproduces the whole run
+     * @param maxLength the maximum length of each retained, deleted or inserted span
+     */
+    public RandomEdits(Random random, int maxLength) {
+        this.random = random;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Creates an operation over the whole document mixing retains, deletes and inserts
+     * @param document the document the operation applies to
+     * @return the operation
+     */
+    public TextOperation randomOperation(String document) {
+        TextOperation operation = new TextOperation();
+        int position = 0;
+        while (position < document.length()) {
+            int length = 1 + random.nextInt(Math.min(maxLength, document.length() - position));
+            switch (random.nextInt(3)) {
+                case 0 -> operation.retain(length);
+                case 1 -> operation.delete(length);
+                default -> {
+                    operation.insert(randomString(1 + random.nextInt(maxLength)));
+                    operation.retain(length);
+                }
+            }
+            position += length;
+        }
+        if (random.nextBoolean()) {
+            operation.insert(randomString(1 + random.nextInt(maxLength)));
+        }
+        return operation;
+    }
+
+    /**
+     * @param length the length of the text
+     * @return a text of lowercase letters and spaces
+     */
+    public String randomString(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+}
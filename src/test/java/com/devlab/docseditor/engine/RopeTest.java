@@ -0,0 +1,80 @@
+package com.devlab.docseditor.engine;
+
+import com.devlab.docseditor.engine.ot.TextOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RopeTest {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz \n";
+
+    private final Random random = new Random(3);
+
+    @Test
+    void editsMatchStringBuilderAndKeepTheTreeBalanced() {
+        StringBuilder expected = new StringBuilder(randomString(5 * Rope.CHUNK_SIZE));
+        Rope rope = Rope.of(expected.toString());
+
+        for (int step = 0; step < 5000; step++) {
+            int start = random.nextInt(expected.length() + 1);
+            // Mostly keystrokes, sometimes pastes and cuts spanning several chunks
+            int span = random.nextInt(10) == 0 ? random.nextInt(3 * Rope.CHUNK_SIZE) : random.nextInt(3);
+            int end = Math.min(expected.length(), start + (random.nextBoolean() ? span : 0));
+            String text = randomString(random.nextBoolean() ? span : 0);
+
+            Rope before = rope;
+            String beforeText = before.toString();
+            rope = rope.replace(start, end, text);
+            expected.replace(start, end, text);
+
+            assertEquals(beforeText, before.toString());
+            assertEquals(expected.length(), rope.length());
+            if (step % 100 == 0) {
+                assertEquals(expected.toString(), rope.toString());
+                int index = random.nextInt(Math.max(1, expected.length()));
+                if (expected.length() > 0) {
+                    assertEquals(expected.charAt(index), rope.charAt(index));
+                }
+                int to = Math.min(expected.length(), index + 100);
+                assertEquals(expected.substring(Math.min(index, to), to), rope.subSequence(Math.min(index, to), to).toString());
+            }
+        }
+        assertEquals(expected.toString(), rope.toString());
+
+        // An AVL tree of n chunks is at most about 1.44 log2(n) high; chunks are at least one character long
+        int chunks = Math.max(1, rope.length());
+        assertTrue(rope.height() <= 1.45 * Math.log(chunks + 2) / Math.log(2) + 1, "height " + rope.height());
+    }
+
+    @Test
+    void operationsApplyToRopesAsToStrings() {
+        String document = randomString(3 * Rope.CHUNK_SIZE);
+        Rope rope = Rope.of(document);
+        for (int step = 0; step < 200; step++) {
+            int prefix = random.nextInt(document.length() + 1);
+            int deleted = random.nextInt(Math.min(2 * Rope.CHUNK_SIZE, document.length() - prefix) + 1);
+            TextOperation operation = new TextOperation()
+                    .retain(prefix)
+                    .insert(randomString(random.nextInt(4)))
+                    .delete(deleted)
+                    .retain(document.length() - prefix - deleted);
+
+            document = operation.apply(document);
+            rope = operation.apply(rope);
+            assertEquals(document, rope.toString());
+        }
+        assertEquals("", new TextOperation().delete(document.length()).apply(rope).toString());
+    }
+
+    private String randomString(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package com.devlab.docseditor.engine.crdt;
+
+import com.devlab.docseditor.engine.RandomEdits;
+import com.devlab.docseditor.engine.ot.TextOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SequenceCrdtTest {
+
+    private final Random random = new Random(7);
+    private final RandomEdits edits = new RandomEdits(random, 5);
+
+    @Test
+    void replicasConvergeWhenUpdatesInterleave() {
+        for (int round = 0; round < 50; round++) {
+            String initial = edits.randomString(random.nextInt(30));
+            List<SequenceCrdt> replicas = List.of(
+                    SequenceCrdt.fromText(1, initial),
+                    SequenceCrdt.fromText(2, initial),
+                    SequenceCrdt.fromText(3, initial));
+            List<String> texts = new ArrayList<>(List.of(initial, initial, initial));
+            // inboxes.get(to).get(from) keeps the updates of one sender in order
+            List<List<Queue<byte[]>>> inboxes = new ArrayList<>();
+            for (int to = 0; to < replicas.size(); to++) {
+                List<Queue<byte[]>> inbox = new ArrayList<>();
+                for (int from = 0; from < replicas.size(); from++) {
+                    inbox.add(new ArrayDeque<>());
+                }
+                inboxes.add(inbox);
+            }
+
+            for (int step = 0; step < 40; step++) {
+                int replica = random.nextInt(replicas.size());
+                if (random.nextBoolean()) {
+                    TextOperation operation = edits.randomOperation(texts.get(replica));
+                    byte[] update = replicas.get(replica).applyLocal(operation);
+                    texts.set(replica, operation.apply(texts.get(replica)));
+                    if (update != null) {
+                        for (int to = 0; to < replicas.size(); to++) {
+                            if (to != replica) {
+                                inboxes.get(to).get(replica).add(update);
+                            }
+                        }
+                    }
+                } else {
+                    deliver(replicas, texts, inboxes, replica, random.nextInt(replicas.size()));
+                }
+                assertEquals(texts.get(replica), replicas.get(replica).getText());
+            }
+            for (int to = 0; to < replicas.size(); to++) {
+                for (int from = 0; from < replicas.size(); from++) {
+                    deliver(replicas, texts, inboxes, to, from);
+                }
+            }
+
+            assertEquals(texts.get(0), texts.get(1));
+            assertEquals(texts.get(0), texts.get(2));
+            assertEquals(texts.get(0), replicas.get(0).getText());
+        }
+    }
+
+    @Test
+    void stateRoundTripsAndServesMissingUpdates() {
+        SequenceCrdt a = SequenceCrdt.fromText(1, "hello world");
+        SequenceCrdt b = SequenceCrdt.decode(2, a.encodeState());
+        a.applyLocal(new TextOperation().retain(5).delete(6).insert(" there"));
+
+        TextOperation change = b.applyRemote(a.encodeUpdateSince(b.encodeStateVector()));
+
+        assertEquals("hello there", change.apply("hello world"));
+        assertEquals("hello there", b.getText());
+        assertEquals(a.getText(), SequenceCrdt.decode(3, a.encodeState()).getText());
+    }
+
+    @Test
+    void tombstonesAreCollectedOnceEveryPeerHasSeenThem() {
+        SequenceCrdt a = SequenceCrdt.fromText(1, "abcdef");
+        SequenceCrdt b = SequenceCrdt.fromText(2, "abcdef");
+        a.applyRemote(b.applyLocal(new TextOperation().retain(6).insert("!")));
+
+        byte[] delete = a.applyLocal(new TextOperation().retain(1).delete(4).retain(2));
+        assertEquals(0, a.collectGarbage());
+
+        b.applyRemote(delete);
+        assertEquals(4, b.collectGarbage());
+
+        // a learns that b has seen the delete
+        a.applyRemote(b.applyLocal(new TextOperation().retain(3).insert("?")));
+        assertEquals(4, a.collectGarbage());
+        assertEquals(0, a.getTombstoneCount());
+        assertEquals("af!?", a.getText());
+        assertEquals(a.getText(), b.getText());
+    }
+
+    @Test
+    void departedPeersNoLongerHoldBackGarbageCollection() {
+        SequenceCrdt a = SequenceCrdt.fromText(1, "abcdef");
+        SequenceCrdt b = SequenceCrdt.fromText(2, "abcdef");
+        SequenceCrdt c = SequenceCrdt.fromText(3, "abcdef");
+        a.applyRemote(c.applyLocal(new TextOperation().retain(6).insert("!")));
+        b.applyRemote(a.encodeUpdateSince(b.encodeStateVector()));
+
+        b.applyRemote(a.applyLocal(new TextOperation().retain(1).delete(4).retain(2)));
+        a.applyRemote(b.applyLocal(new TextOperation().retain(3).insert("?")));
+        // c never acknowledged the delete
+        assertEquals(0, a.collectGarbage());
+
+        a.retainPeers(Set.of(2));
+        assertEquals(4, a.collectGarbage());
+        assertEquals("af!?", a.getText());
+    }
+
+    private void deliver(List<SequenceCrdt> replicas, List<String> texts, List<List<Queue<byte[]>>> inboxes,
+                         int to, int from) {
+        Queue<byte[]> inbox = inboxes.get(to).get(from);
+        while (!inbox.isEmpty()) {
+            TextOperation change = replicas.get(to).applyRemote(inbox.poll());
+            if (change != null) {
+                texts.set(to, change.apply(texts.get(to)));
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.devlab.docseditor.engine.ot;
+
+import com.devlab.docseditor.engine.RandomEdits;
+import com.devlab.docseditor.exception.StaleRevisionException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OperationTransformerTest {
+
+    private final Random random = new Random(42);
+    private final RandomEdits edits = new RandomEdits(random, 10);
+
+    @Test
+    void transformedOperationsConverge() {
+        for (int i = 0; i < 500; i++) {
+            String document = edits.randomString(random.nextInt(50));
+            TextOperation a = edits.randomOperation(document);
+            TextOperation b = edits.randomOperation(document);
+
+            TextOperation[] primes = OperationTransformer.transform(a, b);
+
+            assertEquals(primes[1].apply(a.apply(document)), primes[0].apply(b.apply(document)));
+            assertEquals(primes[0], OperationTransformer.transformAgainst(a, b));
+        }
+    }
+
+    @Test
+    void composedOperationMatchesSequentialApplication() {
+        for (int i = 0; i < 500; i++) {
+            String document = edits.randomString(random.nextInt(50));
+            TextOperation a = edits.randomOperation(document);
+            String afterA = a.apply(document);
+            TextOperation b = edits.randomOperation(afterA);
+
+            assertEquals(b.apply(afterA), OperationTransformer.compose(a, b).apply(document));
+        }
+    }
+
+    @Test
+    void concurrentInsertsAtSamePositionKeepFirstOperationFirst() {
+        TextOperation a = new TextOperation().retain(2).insert("A").retain(1);
+        TextOperation b = new TextOperation().retain(2).insert("B").retain(1);
+
+        TextOperation[] primes = OperationTransformer.transform(a, b);
+
+        assertEquals("abABc", primes[0].apply(b.apply("abc")));
+    }
+
+    @Test
+    void wireFormatRoundTrips() {
+        TextOperation operation = new TextOperation().retain(3).delete(2).insert("xy").retain(4);
+
+        assertEquals(List.of(3, "xy", -2, 4), operation.toJson());
+        assertEquals(operation, TextOperation.fromJson(operation.toJson()));
+    }
+
+    @Test
+    void historyRebasesOperationsFromOlderRevisions() {
+        String document = "hello world";
+        OperationHistory history = new OperationHistory(4, 10);
+
+        TextOperation first = new TextOperation().insert(">> ").retain(11);
+        document = first.apply(document);
+        history.record(first);
+        TextOperation second = new TextOperation().retain(14).insert("!");
+        document = second.apply(document);
+        history.record(second);
+
+        // Based on revision 10, where the document was still "hello world"
+        TextOperation stale = new TextOperation().retain(6).delete(5).insert("there");
+        document = history.rebase(10, stale).apply(document);
+
+        assertEquals(">> hello there!", document);
+        assertEquals(12, history.getRevision());
+    }
+
+    @Test
+    void historyRejectsRevisionsOutsideTheBuffer() {
+        OperationHistory history = new OperationHistory(2, 0);
+        String document = "";
+        for (int i = 0; i < 3; i++) {
+            TextOperation operation = new TextOperation().retain(document.length()).insert("x");
+            document = operation.apply(document);
+            history.record(operation);
+        }
+
+        TextOperation operation = new TextOperation().insert("y");
+        assertThrows(StaleRevisionException.class, () -> history.rebase(0, operation));
+        assertThrows(StaleRevisionException.class, () -> history.rebase(4, operation));
+    }
+}
@@ -0,0 +1,62 @@
+package com.devlab.docseditor.service;
+
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtServiceTest {
+
+    private static final String SECRET = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
+
+    private final UserDetails alice = new User("alice", "", List.of());
+
+    private JwtService jwtService;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = jwtService(60_000);
+    }
+
+    @Test
+    void verifiedTokensAreServedFromTheCacheUntilTheyExpire() {
+        String token = jwtService.generateToken(alice);
+
+        JwtService.VerifiedToken first = jwtService.verify(token);
+
+        assertEquals("alice", first.username());
+        assertTrue(first.expiresAt() > System.currentTimeMillis());
+        assertEquals(first, jwtService.verify(token));
+        assertTrue(jwtService.isTokenValid(token, alice));
+        assertFalse(jwtService.isTokenValid(token, new User("bob", "", List.of())));
+    }
+
+    @Test
+    void tamperedAndExpiredTokensAreRejected() {
+        String token = jwtService.generateToken(alice);
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertThrows(JwtException.class, () -> jwtService.verify(tampered));
+        assertThrows(JwtException.class, () -> jwtService(-1_000).verify(jwtService(-1_000).generateToken(alice)));
+    }
+
+    private static JwtService jwtService(long expiration) {
+        JwtService service = new JwtService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "secretKey", SECRET);
+        ReflectionTestUtils.setField(service, "jwtExpiration", expiration);
+        ReflectionTestUtils.setField(service, "refreshExpiration", expiration);
+        ReflectionTestUtils.setField(service, "verifiedCacheSize", 2);
+        service.init();
+        return service;
+    }
+}
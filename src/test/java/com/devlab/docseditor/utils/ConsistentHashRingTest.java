@@ -0,0 +1,42 @@
+package com.devlab.docseditor.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTest {
+
+    @Test
+    void addingANodeOnlyMovesKeysToThatNode() {
+        ConsistentHashRing three = new ConsistentHashRing(List.of("a", "b", "c"));
+        ConsistentHashRing four = new ConsistentHashRing(List.of("a", "b", "c", "d"));
+        Map<String, Integer> load = new HashMap<>();
+
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String key = "document-" + i;
+            String before = three.nodeFor(key);
+            String after = four.nodeFor(key);
+            if (!before.equals(after)) {
+                assertEquals("d", after);
+                moved++;
+            }
+            load.merge(after, 1, Integer::sum);
+        }
+
+        // Roughly a quarter of the keys move to the new node, and every node gets a fair share
+        assertTrue(moved > 1_500 && moved < 3_500, "moved " + moved);
+        load.values().forEach(keys -> assertTrue(keys > 1_500 && keys < 3_500, "load " + load));
+    }
+
+    @Test
+    void emptyRingOwnsNothing() {
+        assertNull(new ConsistentHashRing(List.of()).nodeFor("document"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.devlab.docseditor.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentCodecTest {
+
+    private final String large = "Grüße aus dem Editor, line after line. ".repeat(500);
+
+    @Test
+    void contentDecodesWhateverCompressionEncodedIt() {
+        ContentCodec lz4 = new ContentCodec(ContentCodec.Compression.LZ4, 64);
+        ContentCodec deflate = new ContentCodec(ContentCodec.Compression.DEFLATE, 64);
+        ContentCodec none = new ContentCodec(ContentCodec.Compression.NONE, 64);
+
+        for (ContentCodec encoder : new ContentCodec[]{lz4, deflate, none}) {
+            byte[] encoded = encoder.encode(large);
+            for (ContentCodec decoder : new ContentCodec[]{lz4, deflate, none}) {
+                assertEquals(large, decoder.decode(encoded));
+            }
+            assertEquals("short", encoder.decode(encoder.encode("short")));
+            assertEquals("", encoder.decode(encoder.encode("")));
+        }
+        assertTrue(lz4.encode(large).length < large.length() / 4);
+        assertTrue(deflate.encode(large).length < large.length() / 4);
+        assertEquals(1 + "short".length(), lz4.encode("short").length);
+    }
+
+    @Test
+    void valuesInAnotherFormatAreMisses() {
+        ContentCodec codec = new ContentCodec(ContentCodec.Compression.LZ4, 64);
+
+        assertNull(codec.decode(null));
+        assertNull(codec.decode(new GenericJackson2JsonRedisSerializer().serialize(large)));
+    }
+}
@@ -0,0 +1,61 @@
+package com.devlab.docseditor.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyedSerialExecutorTest {
+
+    @Test
+    void tasksOfOneKeyRunInOrderWhileAnotherKeyIsBlocked() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            KeyedSerialExecutor executor = new KeyedSerialExecutor(pool);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch slowDone = new CountDownLatch(1);
+            CountDownLatch fastDone = new CountDownLatch(1);
+            List<Integer> order = new ArrayList<>();
+
+            executor.execute("slow", () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slowDone.countDown();
+            });
+            for (int i = 0; i < 1000; i++) {
+                int task = i;
+                executor.execute("fast", () -> {
+                    if (task == 500) {
+                        throw new IllegalStateException("Failed task");
+                    }
+                    // Tasks of one key never overlap, so the list needs no synchronization
+                    order.add(task);
+                    if (task == 999) {
+                        fastDone.countDown();
+                    }
+                });
+            }
+
+            // The blocked key holds one thread; the other drains past it and past its failed task
+            assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+            release.countDown();
+            assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+            assertEquals(999, order.size());
+            for (int i = 1; i < order.size(); i++) {
+                assertTrue(order.get(i - 1) < order.get(i), "Out of order at " + i);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.devlab.docseditor.utils;
+
+import com.devlab.docseditor.model.entity.CollaborativeDocument;
+import com.devlab.docseditor.model.entity.DocumentVersion;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VersioningUtilTest {
+
+    @Test
+    void everyVersionIsReconstructedFromKeyframesAndDeltas() {
+        Random random = new Random(3);
+        CollaborativeDocument document = CollaborativeDocument.builder()
+                .id("doc")
+                .content("")
+                .build();
+        List<DocumentVersion> versions = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+
+        String content = "";
+        for (int i = 0; i < 120; i++) {
+            int position = random.nextInt(content.length() + 1);
+            int deleted = random.nextInt(Math.min(5, content.length() - position) + 1);
+            content = content.substring(0, position) + "edit " + i + " ü " + content.substring(position + deleted);
+            versions.add(VersioningUtil.createNewVersion(document, content, "user", 10));
+            document.setContent(content);
+            contents.add(content);
+        }
+
+        assertEquals(120, document.getVersionCount());
+        int keyframe = 0;
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(i + 1, versions.get(i).getVersionNumber());
+            assertEquals("doc:" + (i + 1), versions.get(i).getId());
+            if (versions.get(i).isKeyframe()) {
+                keyframe = i;
+            }
+            assertTrue(i - keyframe < 10);
+            assertEquals(contents.get(i), VersioningUtil.reconstructContent(versions.subList(keyframe, i + 1)));
+        }
+        assertTrue(versions.stream().filter(DocumentVersion::isKeyframe).count() <= 120 / 10 + 1);
+    }
+
+    @Test
+    void versionsAreNotTimestampedBeforeTheirPredecessor() {
+        // The previous version was stamped by a clock that has since been set back
+        LocalDateTime ahead = LocalDateTime.now().plusHours(1);
+        CollaborativeDocument document = CollaborativeDocument.builder()
+                .id("doc")
+                .content("a")
+                .versionCount(1)
+                .lastKeyframeVersion(1)
+                .lastVersionTime(ahead)
+                .build();
+
+        DocumentVersion version = VersioningUtil.createNewVersion(document, "ab", "user", 10);
+
+        assertEquals(ahead, version.getTimestamp());
+        assertEquals(ahead, document.getLastVersionTime());
+    }
+}